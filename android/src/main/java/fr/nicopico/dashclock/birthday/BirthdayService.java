@@ -16,15 +16,27 @@
 
 package fr.nicopico.dashclock.birthday;
 
-import fr.nicopico.dashclock.birthday.data.Birthday;
+import fr.nicopico.dashclock.birthday.data.BirthdayCalendar;
+import fr.nicopico.dashclock.birthday.data.BirthdayFormatter;
 import fr.nicopico.dashclock.birthday.data.BirthdayRetriever;
+import fr.nicopico.dashclock.birthday.data.Diagnostics;
+import fr.nicopico.dashclock.birthday.data.EpochDays;
+import fr.nicopico.dashclock.birthday.data.UpcomingBirthdays;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.ContactsContract;
 import android.util.Log;
@@ -32,10 +44,11 @@ import android.util.Log;
 import com.google.android.apps.dashclock.api.DashClockExtension;
 import com.google.android.apps.dashclock.api.ExtensionData;
 
-import org.joda.time.*;
-
-import java.util.List;
+import java.util.BitSet;
 import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
 
 /**
  * User: Nicolas PICON
@@ -44,7 +57,16 @@ import java.util.Locale;
 public class BirthdayService extends DashClockExtension {
 
     private static final String TAG = BirthdayService.class.getSimpleName();
-    private static final String DEFAULT_LANG = "en";
+
+    // Contact changes are processed once no other change happened during CONTACTS_QUIET_DELAY,
+    // but never later than CONTACTS_MAX_DELAY after the first change
+    private static final long CONTACTS_QUIET_DELAY = 2000;
+    private static final long CONTACTS_MAX_DELAY = 10000;
+
+    // Above this number of birthdays, they are not kept in memory between updates
+    private static final int STREAMING_THRESHOLD = 20000;
+    // Maximum number of birthdays listed in the expanded body
+    private static final int MAX_LISTED_BIRTHDAYS = 50;
 
     private BirthdayRetriever birthdayRetriever;
     private SharedPreferences sharedPreferences;
@@ -52,14 +74,113 @@ public class BirthdayService extends DashClockExtension {
     private int daysLimit;
     private boolean showQuickContact;
     private boolean disableLocalization;
-    private String contactGroupId;
+    private Set<String> contactGroupIds;
+    private int eventKinds;
+
+    private String preferencesFingerprint;
+
+    // Templates of the displayed locale, compiled again only when the locale changes
+    private BirthdayFormatter formatter;
+    private Locale formatterLocale;
+
+    // Last published data, reused as long as the day, the preferences and the contacts stay the same
+    private ExtensionData lastExtensionData;
+    private int lastEpochDay;
+    private String lastPreferencesFingerprint;
+    private Locale lastLocale;
+    private int lastContactsGeneration;
+    private int contactsGeneration;
+    private int cacheHits;
+    private int cacheMisses;
+
+    // Next local midnight, in the SystemClock.elapsedRealtime() time base: the published data cannot change before,
+    // unless the contacts, the preferences, the date, the time, the time zone or the locale change
+    private volatile long nextChange;
+    private BroadcastReceiver clockChangeReceiver;
+
+    // Coalesced refresh after contact changes, this thread also runs the refresh after clock changes
+    private HandlerThread contactsRefreshThread;
+    private Handler contactsRefreshHandler;
+    private final Object contactsRefreshLock = new Object();
+    private long firstPendingContactsChange;
+    private CancellationSignal runningContactsRefresh;
+    // The running refresh was forced by CONTACTS_MAX_DELAY, it is not cancelled by new changes
+    private boolean runningContactsRefreshForced;
+
+    // Birthdays of all the contacts, reloaded only when the contacts change
+    private BirthdayCalendar calendar;
+    private int calendarContactsGeneration;
+
+    // Huge address books are read again on each update, see STREAMING_THRESHOLD
+    private boolean streaming;
+    // Contacts generation of the last count of all the events, while streaming
+    private int countedContactsGeneration;
+
+    // Rows of the upcoming birthdays, reused between updates
+    private final UpcomingBirthdays upcoming = new UpcomingBirthdays(MAX_LISTED_BIRTHDAYS);
+
+    private final Runnable contactsRefresh = new Runnable() {
+        @Override
+        public void run() {
+            final CancellationSignal cancellationSignal = new CancellationSignal();
+            synchronized (contactsRefreshLock) {
+                runningContactsRefreshForced =
+                        SystemClock.uptimeMillis() >= firstPendingContactsChange + CONTACTS_MAX_DELAY;
+                firstPendingContactsChange = 0;
+                runningContactsRefresh = cancellationSignal;
+            }
 
-    private boolean needToRefreshLocalization;
+            try {
+                refresh(UPDATE_REASON_CONTENT_CHANGED, cancellationSignal);
+            }
+            catch (OperationCanceledException e) {
+                Log.d(TAG, "Contacts have changed again, refresh cancelled");
+            }
+            finally {
+                synchronized (contactsRefreshLock) {
+                    if (runningContactsRefresh == cancellationSignal) {
+                        runningContactsRefresh = null;
+                    }
+                }
+            }
+        }
+    };
+
+    private final Runnable clockChangeRefresh = new Runnable() {
+        @Override
+        public void run() {
+            refresh(UPDATE_REASON_UNKNOWN, null);
+        }
+    };
 
     @Override
     protected void onInitialize(boolean isReconnect) {
         super.onInitialize(isReconnect);
 
+        if (contactsRefreshThread == null) {
+            contactsRefreshThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            contactsRefreshThread.start();
+            contactsRefreshHandler = new Handler(contactsRefreshThread.getLooper());
+        }
+
+        if (clockChangeReceiver == null) {
+            // The next change moves with the clock
+            clockChangeReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    nextChange = 0;
+                    contactsRefreshHandler.removeCallbacks(clockChangeRefresh);
+                    contactsRefreshHandler.post(clockChangeRefresh);
+                }
+            };
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_DATE_CHANGED);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+            registerReceiver(clockChangeReceiver, filter);
+        }
+
         final Context applicationContext = getApplicationContext();
         assert applicationContext != null;
         birthdayRetriever = new BirthdayRetriever(applicationContext);
@@ -82,160 +203,266 @@ public class BirthdayService extends DashClockExtension {
                 SettingsActivity.PREF_SHOW_QUICK_CONTACT, true
         );
 
-        boolean previousDisableLocalizationValue = disableLocalization;
         disableLocalization = sharedPreferences.getBoolean(
                 SettingsActivity.PREF_DISABLE_LOCALIZATION, false
         );
-        needToRefreshLocalization = previousDisableLocalizationValue != disableLocalization;
 
-        contactGroupId = sharedPreferences.getString(
-                SettingsActivity.PREF_CONTACT_GROUP, SettingsActivity.NO_CONTACT_GROUP_SELECTED
-        );
+        contactGroupIds = SettingsActivity.getContactGroups(sharedPreferences);
+        eventKinds = SettingsActivity.getEventKinds(sharedPreferences);
+        Diagnostics.setEnabled(sharedPreferences.getBoolean(SettingsActivity.PREF_DIAGNOSTICS, false));
 
+        preferencesFingerprint = daysLimit + "|" + showQuickContact + "|" + disableLocalization
+                + "|" + new TreeSet<String>(contactGroupIds) + "|" + eventKinds;
     }
 
     @Override
-    protected void onUpdateData(int reason) {
-        if (reason == UPDATE_REASON_SETTINGS_CHANGED) {
-            updatePreferences();
+    public void onDestroy() {
+        if (clockChangeReceiver != null) {
+            unregisterReceiver(clockChangeReceiver);
+            clockChangeReceiver = null;
         }
+        if (contactsRefreshThread != null) {
+            synchronized (contactsRefreshLock) {
+                contactsRefreshHandler.removeCallbacks(contactsRefresh);
+                if (runningContactsRefresh != null) runningContactsRefresh.cancel();
+            }
+            contactsRefreshThread.quit();
+        }
+        super.onDestroy();
+    }
 
-        final Resources res = getResources();
-        final List<Birthday> birthdays =
-                birthdayRetriever.getContactWithBirthdays(getApplicationContext(), contactGroupId);
+    @Override
+    protected void onUpdateData(int reason) {
+        if ((reason == UPDATE_REASON_PERIODIC || reason == UPDATE_REASON_SCREEN_ON)
+                && SystemClock.elapsedRealtime() < nextChange) {
+            // DashClock still displays the last published data
+            cacheHits++;
+            logCacheStats();
+            Diagnostics.cacheHit(Diagnostics.CACHE_EXTENSION_DATA);
+            return;
+        }
 
-        Configuration config = new Configuration();
-        config.setToDefaults();
+        if (reason == UPDATE_REASON_CONTENT_CHANGED) {
+            scheduleContactsRefresh();
+        }
+        else {
+            refresh(reason, null);
+        }
+    }
 
-        // Disable/enable Android localization
-        if (needToRefreshLocalization ||
-                (disableLocalization && !DEFAULT_LANG.equals(Locale.getDefault().getLanguage()))) {
-            if (disableLocalization) {
-                config.locale = new Locale(DEFAULT_LANG);
+    /**
+     * Contact changes come in bursts during an account synchronization.
+     * Wait for the burst to end before refreshing, and cancel any refresh made outdated by the new change,
+     * unless it was forced by {@link #CONTACTS_MAX_DELAY}: during a long burst, it must still publish.
+     */
+    private void scheduleContactsRefresh() {
+        final long now = SystemClock.uptimeMillis();
+        synchronized (contactsRefreshLock) {
+            if (firstPendingContactsChange == 0) {
+                firstPendingContactsChange = now;
             }
-            else {
-                // Restore Android localization
-                //noinspection ConstantConditions
-                config.locale = Resources.getSystem().getConfiguration().locale;
+            long refreshTime = Math.min(now + CONTACTS_QUIET_DELAY, firstPendingContactsChange + CONTACTS_MAX_DELAY);
+
+            contactsRefreshHandler.removeCallbacks(contactsRefresh);
+            contactsRefreshHandler.postAtTime(contactsRefresh, refreshTime);
+
+            if (runningContactsRefresh != null && !runningContactsRefreshForced) {
+                runningContactsRefresh.cancel();
             }
+        }
+    }
+
+    private synchronized void refresh(int reason, CancellationSignal cancellationSignal) {
+        // The run includes the queries of the contact changes
+        Diagnostics.startRun();
+        if (reason == UPDATE_REASON_SETTINGS_CHANGED) {
+            updatePreferences();
+        }
+        else if (reason == UPDATE_REASON_CONTENT_CHANGED && !applyContactChanges(cancellationSignal)) {
+            // None of the changes affects a birthday or a group membership
+            Diagnostics.endRun();
+            return;
+        }
 
-            Locale.setDefault(config.locale);
-            getBaseContext().getResources()
-                    .updateConfiguration(config, getBaseContext().getResources().getDisplayMetrics());
+        final long now = System.currentTimeMillis();
+        final TimeZone timeZone = TimeZone.getDefault();
+        final int today = EpochDays.fromMillis(now, timeZone);
+        //noinspection ConstantConditions
+        final Locale systemLocale = Resources.getSystem().getConfiguration().locale;
+
+        final boolean debugMode = sharedPreferences.getBoolean(SettingsActivity.PREF_DEBUG_MODE, false);
+
+        // Nothing has changed since the last update: publish the same data again
+        if (lastExtensionData != null
+                && today == lastEpochDay
+                && contactsGeneration == lastContactsGeneration
+                && preferencesFingerprint.equals(lastPreferencesFingerprint)
+                && systemLocale.equals(lastLocale)
+                && !debugMode) {
+            cacheHits++;
+            logCacheStats();
+            Diagnostics.cacheHit(Diagnostics.CACHE_EXTENSION_DATA);
+            scheduleNextChange(today, now, timeZone);
+            publishUpdate(lastExtensionData);
+            Diagnostics.endRun();
+            return;
         }
+        cacheMisses++;
+        logCacheStats();
+        Diagnostics.cacheMiss(Diagnostics.CACHE_EXTENSION_DATA);
 
-        DateTime today = new DateTime();
+        retrieveUpcomingBirthdays(today, debugMode, cancellationSignal);
 
-        int upcomingBirthdays = 0;
-        String collapsedTitle = null;
-        String expandedTitle = null;
-        StringBuilder body = new StringBuilder();
+        long timer = Diagnostics.start();
+        final BirthdayFormatter formatter = getFormatter(systemLocale);
+        Diagnostics.stop(Diagnostics.PHASE_LOCALE, timer);
 
-        for (Birthday birthday : birthdays) {
-            DateTime birthdayEvent;
-            MonthDay birthdayDate = birthday.birthdayDate;
-            try {
-                birthdayEvent = birthdayDate.toDateTime(today);
-            }
-            catch (IllegalFieldValueException e) {
-                if (birthdayDate.getDayOfMonth() == 29 && birthdayDate.getMonthOfYear() == 2) {
-                    // Birthday on February 29th (leap year) -> March 1st
-                    birthdayEvent = birthdayDate.dayOfMonth().addToCopy(1).toDateTime(today);
-                }
-                else {
-                    Log.e(TAG, "Invalid date", e);
-                    continue;
-                }
-            }
+        timer = Diagnostics.start();
+        formatter.format(today, upcoming);
 
-            // How many days before the birthday ?
-            int days;
-            if (birthdayEvent.isAfter(today) || birthdayEvent.isEqual(today)) {
-                days = Days.daysBetween(today, birthdayEvent).getDays();
-            }
-            else {
-                // Next birthday event is next year
-                days = Days.daysBetween(today, birthdayEvent.plusYears(1)).getDays();
-            }
+        ExtensionData extensionData;
+        if (upcoming.getCount() > 0) {
+            Intent clickIntent = buildClickIntent(upcoming.getLookupKey(0), upcoming.getContactId(0));
 
-            // Should the birthday be displayed ?
-            if (days <= daysLimit) {
-                upcomingBirthdays++;
+            // Display message
+            extensionData = new ExtensionData()
+                    .visible(true)
+                    .icon(R.drawable.ic_extension_white)
+                    .status(formatter.getStatus())
+                    .expandedTitle(formatter.getExpandedTitle())
+                    .expandedBody(formatter.getExpandedBody())
+                    .clickIntent(clickIntent);
+        }
+        else {
+            // Nothing to show
+            extensionData = new ExtensionData().visible(false);
+        }
 
-                if (upcomingBirthdays == 1) {
-                    // A single birthday will be displayed
-                    collapsedTitle = birthday.displayName;
-                    expandedTitle = res.getString(R.string.single_birthday_title_format, birthday.displayName);
-                }
+        Diagnostics.stop(Diagnostics.PHASE_FORMAT, timer);
 
-                // More than 1 upcoming birthday: display contact name
-                if (upcomingBirthdays > 1) {
-                    body.append("\n").append(birthday.displayName).append(", ");
-                }
+        lastExtensionData = extensionData;
+        lastEpochDay = today;
+        lastContactsGeneration = contactsGeneration;
+        lastPreferencesFingerprint = preferencesFingerprint;
+        lastLocale = systemLocale;
+        scheduleNextChange(today, now, timeZone);
 
-                // Age
-                if (!birthday.unknownYear) {
-                    int age = today.get(DateTimeFieldType.year()) - birthday.year;
-                    body.append(res.getQuantityString(R.plurals.age_format, age, age));
-                    body.append(' ');
-                }
+        publishUpdate(extensionData);
+        Diagnostics.endRun();
+    }
 
-                // When
-                int daysFormatResId;
-                switch (days) {
-                    case 0:
-                        daysFormatResId = R.string.when_today_format;
-                        break;
-                    case 1:
-                        daysFormatResId = R.string.when_tomorrow_format;
-                        break;
-                    default:
-                        daysFormatResId = R.string.when_days_format;
-                }
+    /**
+     * The days before the birthdays, and so the visible birthdays, only change at midnight
+     */
+    private void scheduleNextChange(int today, long now, TimeZone timeZone) {
+        final long nextMidnight = EpochDays.startOfDay(today + 1, timeZone);
+        nextChange = SystemClock.elapsedRealtime() + (nextMidnight - now);
+    }
+
+    /**
+     * Templates of the system locale, or english if the localization is disabled.
+     * The configuration of the process is left untouched, as the extension runs inside DashClock.
+     */
+    private BirthdayFormatter getFormatter(Locale systemLocale) {
+        final Locale locale = ResourcesFormatter.getLocale(systemLocale, disableLocalization);
+        if (formatter == null || !locale.equals(formatterLocale)) {
+            formatter = ResourcesFormatter.create(this, locale);
+            formatterLocale = locale;
+        }
+        return formatter;
+    }
+
+    private void logCacheStats() {
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, String.format("ExtensionData cache: %d hit(s), %d miss(es)", cacheHits, cacheMisses));
+        }
+    }
 
-                body.append(res.getString(daysFormatResId, days));
+    /**
+     * Update the birthdays with the changes of the contacts, when they are kept in memory
+     * @return <code>false</code> if the changes do not affect the birthdays
+     */
+    private boolean applyContactChanges(CancellationSignal cancellationSignal) {
+        if (calendar != null && !streaming && calendarContactsGeneration == contactsGeneration
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            BirthdayCalendar updatedCalendar = birthdayRetriever.updateContactWithBirthdays(
+                    getApplicationContext(), calendar, cancellationSignal
+            );
+            if (updatedCalendar == calendar) {
+                Diagnostics.cacheHit(Diagnostics.CACHE_INDEX);
+                return false;
             }
-            else {
-                // All visible birthdays have been processed
-                break;
+            else if (updatedCalendar != null) {
+                Diagnostics.cacheHit(Diagnostics.CACHE_INDEX);
+                calendar = updatedCalendar;
+                contactsGeneration++;
+                calendarContactsGeneration = contactsGeneration;
+                return true;
             }
         }
 
-        if (upcomingBirthdays > 0) {
-            Intent clickIntent = buildClickIntent(birthdays.subList(0, upcomingBirthdays));
+        // Reload all the birthdays
+        contactsGeneration++;
+        return true;
+    }
 
-            if (upcomingBirthdays > 1) {
-                collapsedTitle += " + " + (upcomingBirthdays - 1);
+    /**
+     * Fill {@link #upcoming} with the birthdays of the next {@link #daysLimit} days
+     */
+    private void retrieveUpcomingBirthdays(int today, boolean debugMode, CancellationSignal cancellationSignal) {
+        upcoming.clear();
+
+        // A change of the selected groups or kinds of events does not require to query the contacts again
+        if (debugMode || (!streaming && (calendar == null || calendarContactsGeneration != contactsGeneration))) {
+            calendar = birthdayRetriever.getContactWithBirthdays(getApplicationContext(), cancellationSignal);
+            calendarContactsGeneration = contactsGeneration;
+
+            if (calendar.size() > STREAMING_THRESHOLD) {
+                Log.i(TAG, calendar.size() + " birthdays found, switching to streaming retrieval");
+                streaming = true;
+                countedContactsGeneration = contactsGeneration;
+                calendar = null;
             }
+        }
 
-            // Display message
-            publishUpdate(
-                    new ExtensionData()
-                            .visible(true)
-                            .icon(R.drawable.ic_extension_white)
-                            .status(collapsedTitle)
-                            .expandedTitle(expandedTitle)
-                            .expandedBody(body.toString())
-                            .clickIntent(clickIntent)
+        if (streaming) {
+            int nbEvents = birthdayRetriever.getUpcomingBirthdays(
+                    getApplicationContext(), today, daysLimit, contactGroupIds, eventKinds, upcoming,
+                    cancellationSignal
             );
+            if (nbEvents < 0 && countedContactsGeneration != contactsGeneration) {
+                // Only the members of the selected groups have been read, count the events the calendar would hold
+                nbEvents = birthdayRetriever.countEvents(getApplicationContext(), cancellationSignal);
+            }
+            if (nbEvents >= 0) {
+                countedContactsGeneration = contactsGeneration;
+            }
+            if (nbEvents >= 0 && nbEvents < STREAMING_THRESHOLD * 3 / 4) {
+                // Load the calendar on the next update
+                streaming = false;
+            }
+            upcoming.sort();
         }
         else {
-            // Nothing to show
-            publishUpdate(new ExtensionData().visible(false));
+            long timer = Diagnostics.start();
+            final BitSet selectedRows = calendar.select(contactGroupIds, eventKinds);
+
+            calendar.getUpcomingBirthdays(today, daysLimit, selectedRows, upcoming);
+            Diagnostics.stop(Diagnostics.PHASE_UPCOMING, timer);
         }
     }
 
-    private Intent buildClickIntent(List<Birthday> birthdays) {
+    private Intent buildClickIntent(String lookupKey, long contactId) {
         Intent clickIntent;
         if (showQuickContact) {
             // Open QuickContact dialog on click
-            clickIntent = QuickContactProxy.buildIntent(getApplicationContext(), birthdays.get(0).lookupKey);
+            clickIntent = QuickContactProxy.buildIntent(getApplicationContext(), lookupKey);
         }
         else {
             clickIntent = new Intent(Intent.ACTION_VIEW);
             //noinspection ConstantConditions
             clickIntent.setData(
-                    Uri.withAppendedPath(ContactsContract.Contacts.CONTENT_URI, String.valueOf(birthdays.get(0).contactId))
+                    Uri.withAppendedPath(ContactsContract.Contacts.CONTENT_URI, String.valueOf(contactId))
             );
         }
 
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+import fr.nicopico.dashclock.birthday.data.DebugDump;
+
+/**
+ * Share the debug mode dump with the e-mail application, as a read-only attachment.
+ * The provider is not exported: access is granted with the e-mail intent.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 23:30
+ */
+public class DebugDumpProvider extends ContentProvider {
+
+    private static final String AUTHORITY = "fr.nicopico.dashclock.birthday.debugdump";
+    private static final String MIME_TYPE = "application/gzip";
+
+    public static final Uri DUMP_URI = Uri.parse("content://" + AUTHORITY + "/birthdays-dump.csv.gz");
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return MIME_TYPE;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        // Name and size of the attachment
+        final File file = getDumpFile();
+        if (projection == null) {
+            projection = new String[] { OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE };
+        }
+
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                values[i] = file.getName();
+            }
+            else if (OpenableColumns.SIZE.equals(projection[i])) {
+                values[i] = file.length();
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        return ParcelFileDescriptor.open(getDumpFile(), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    private File getDumpFile() {
+        //noinspection ConstantConditions
+        return DebugDump.getFile(getContext());
+    }
+}
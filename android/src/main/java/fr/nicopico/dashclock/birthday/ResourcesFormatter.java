@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+
+import fr.nicopico.dashclock.birthday.data.BirthdayFormatter;
+import fr.nicopico.dashclock.birthday.data.BirthdayStore;
+
+import java.util.Locale;
+
+/**
+ * Templates read from the resources of a locale
+ *
+ * User: Nicolas PICON
+ * Date: 18/10/26 - 00:45
+ */
+class ResourcesFormatter extends BirthdayFormatter {
+
+    private static final String DEFAULT_LANG = "en";
+
+    private final Resources res;
+
+    /**
+     * @return locale of the templates, english when the localization is disabled in the settings
+     */
+    static Locale getLocale(Locale systemLocale, boolean disableLocalization) {
+        return disableLocalization ? new Locale(DEFAULT_LANG) : systemLocale;
+    }
+
+    /**
+     * @return formatter reading the templates of <code>locale</code>, without changing the configuration of
+     * <code>context</code>
+     */
+    static ResourcesFormatter create(Context context, Locale locale) {
+        Configuration config = new Configuration(context.getResources().getConfiguration());
+        config.setLocale(locale);
+        return new ResourcesFormatter(context.createConfigurationContext(config).getResources());
+    }
+
+    ResourcesFormatter(Resources res) {
+        super(
+                res.getString(R.string.when_today_format),
+                res.getString(R.string.when_tomorrow_format),
+                res.getString(R.string.when_days_format)
+        );
+        this.res = res;
+    }
+
+    @Override
+    protected String getTitleFormat(int kind) {
+        switch (kind) {
+            case BirthdayStore.KIND_ANNIVERSARY:
+                return res.getString(R.string.anniversary_title_format);
+            case BirthdayStore.KIND_OTHER:
+                return res.getString(R.string.event_title_format);
+            default:
+                return res.getString(R.string.single_birthday_title_format);
+        }
+    }
+
+    @Override
+    protected String getEventFormat(int kind) {
+        switch (kind) {
+            case BirthdayStore.KIND_ANNIVERSARY:
+                return res.getString(R.string.anniversary_label);
+            case BirthdayStore.KIND_OTHER:
+                return res.getString(R.string.event_label);
+            default:
+                // The title already tells it is a birthday
+                return "";
+        }
+    }
+
+    @Override
+    protected String getYearsFormat(int kind, int years) {
+        switch (kind) {
+            case BirthdayStore.KIND_ANNIVERSARY:
+                //noinspection ConstantConditions
+                return res.getQuantityText(R.plurals.anniversary_format, years).toString();
+            case BirthdayStore.KIND_OTHER:
+                // The year of other events has no meaning
+                return res.getString(R.string.event_label);
+            default:
+                //noinspection ConstantConditions
+                return res.getQuantityText(R.plurals.age_format, years).toString();
+        }
+    }
+}
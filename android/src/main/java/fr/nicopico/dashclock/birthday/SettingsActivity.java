@@ -17,16 +17,44 @@
 package fr.nicopico.dashclock.birthday;
 
 import android.app.ActionBar;
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
-import android.database.Cursor;
+import android.graphics.Typeface;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.preference.EditTextPreference;
 import android.preference.ListPreference;
+import android.preference.MultiSelectListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
-import android.provider.ContactsContract;
 import android.util.Log;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.MenuItem;
+import android.widget.TextView;
+
+import fr.nicopico.dashclock.birthday.data.BirthdayCalendar;
+import fr.nicopico.dashclock.birthday.data.BirthdayFormatter;
+import fr.nicopico.dashclock.birthday.data.BirthdayRetriever;
+import fr.nicopico.dashclock.birthday.data.BirthdayStore;
+import fr.nicopico.dashclock.birthday.data.ContactGroups;
+import fr.nicopico.dashclock.birthday.data.Diagnostics;
+import fr.nicopico.dashclock.birthday.data.EpochDays;
+import fr.nicopico.dashclock.birthday.data.UpcomingBirthdays;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
 
 /**
  * User: Nicolas PICON
@@ -39,9 +67,60 @@ public class SettingsActivity extends PreferenceActivity {
     public static final String PREF_SHOW_QUICK_CONTACT = "pref_show_quickcontact";
     public static final String PREF_DISABLE_LOCALIZATION = "pref_disable_localization";
     public static final String PREF_DEBUG_MODE = "pref_debug_mode";
-    public static final String PREF_CONTACT_GROUP = "pref_contact_group";
+    public static final String PREF_CONTACT_GROUPS = "pref_contact_groups";
+    public static final String PREF_DIAGNOSTICS = "pref_diagnostics";
+    // Display each kind of event, indexed by kind (see BirthdayStore#getKind)
+    private static final String[] PREF_EVENT_KINDS = {
+            "pref_event_birthdays", "pref_event_anniversaries", "pref_event_others"
+    };
+    private static final String PREF_DIAGNOSTICS_REPORT = "pref_diagnostics_report";
 
-    public static final String NO_CONTACT_GROUP_SELECTED = "NO_CONTACT_GROUP_SELECTED";
+    // Single contact group selection, replaced by PREF_CONTACT_GROUPS
+    private static final String PREF_CONTACT_GROUP = "pref_contact_group";
+    private static final String NO_CONTACT_GROUP_SELECTED = "NO_CONTACT_GROUP_SELECTED";
+
+    // Contact groups of the last opening, displayed while they are loaded again
+    private static ContactGroups sContactGroups;
+    private AsyncTask<Void, Void, ContactGroups> contactGroupsTask;
+    private CancellationSignal contactGroupsCancellationSignal;
+
+    // Birthdays of all the contacts, loaded once to preview the upcoming birthdays
+    private static final String PREF_PREVIEW = "pref_preview";
+    private static final int MAX_PREVIEW_BIRTHDAYS = 10;
+    private BirthdayCalendar previewCalendar;
+    private BirthdayFormatter previewFormatter;
+    private final UpcomingBirthdays previewUpcoming = new UpcomingBirthdays(MAX_PREVIEW_BIRTHDAYS);
+
+    /**
+     * @return ids of the selected contact groups, empty if all contacts are selected
+     */
+    public static Set<String> getContactGroups(SharedPreferences sharedPreferences) {
+        if (sharedPreferences.contains(PREF_CONTACT_GROUP)) {
+            // Migrate the single contact group selection
+            String contactGroupId = sharedPreferences.getString(PREF_CONTACT_GROUP, NO_CONTACT_GROUP_SELECTED);
+            Set<String> contactGroupIds = NO_CONTACT_GROUP_SELECTED.equals(contactGroupId)
+                    ? Collections.<String>emptySet()
+                    : Collections.singleton(contactGroupId);
+            sharedPreferences.edit()
+                    .putStringSet(PREF_CONTACT_GROUPS, contactGroupIds)
+                    .remove(PREF_CONTACT_GROUP)
+                    .commit();
+        }
+        return sharedPreferences.getStringSet(PREF_CONTACT_GROUPS, Collections.<String>emptySet());
+    }
+
+    /**
+     * @return kinds of events to display, see {@link BirthdayStore#kindMask(int)}. Only birthdays by default
+     */
+    public static int getEventKinds(SharedPreferences sharedPreferences) {
+        int eventKinds = 0;
+        for (int kind = 0; kind < BirthdayStore.NB_KINDS; kind++) {
+            if (sharedPreferences.getBoolean(PREF_EVENT_KINDS[kind], kind == BirthdayStore.KIND_BIRTHDAY)) {
+                eventKinds |= BirthdayStore.kindMask(kind);
+            }
+        }
+        return eventKinds;
+    }
 
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -73,6 +152,9 @@ public class SettingsActivity extends PreferenceActivity {
         // In the simplified UI, fragments are not used at all and we instead
         // use the older PreferenceActivity APIs.
 
+        // Migrate the contact group selection before it is read by the preference
+        getContactGroups(PreferenceManager.getDefaultSharedPreferences(this));
+
         // Add 'general' preferences.
         addPreferencesFromResource(R.xml.pref);
 
@@ -81,38 +163,236 @@ public class SettingsActivity extends PreferenceActivity {
         // to reflect the new value, per the Android Design guidelines.
         bindPreferenceSummaryToValue(findPreference(PREF_DAYS_LIMIT_KEY));
 
-        // Contact group preference
-        Cursor groupCursor = null;
-        try {
-            groupCursor = getContentResolver().query(
-                    ContactsContract.Groups.CONTENT_URI,
-                    new String[] {
-                            ContactsContract.Groups._ID,
-                            ContactsContract.Groups.TITLE
-                    }, null, null, null
+        // Contact groups preference, loaded in background
+        MultiSelectListPreference groupsPreference =
+                (MultiSelectListPreference) findPreference(PREF_CONTACT_GROUPS);
+        groupsPreference.setOnPreferenceChangeListener(sBindPreferenceSummaryToValueListener);
+        if (sContactGroups != null) {
+            bindContactGroups(sContactGroups);
+        }
+        else {
+            groupsPreference.setEnabled(false);
+            groupsPreference.setSummary(R.string.pref_contact_groups_loading);
+        }
+        loadContactGroups();
+
+        // Preview of the upcoming birthdays, updated while the days limit is typed
+        findPreference(PREF_PREVIEW).setSummary(R.string.pref_preview_loading);
+        ((EditTextPreference) findPreference(PREF_DAYS_LIMIT_KEY)).getEditText().addTextChangedListener(
+                new TextWatcher() {
+                    @Override
+                    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                    }
+
+                    @Override
+                    public void onTextChanged(CharSequence s, int start, int before, int count) {
+                    }
+
+                    @Override
+                    public void afterTextChanged(Editable s) {
+                        SharedPreferences sharedPreferences =
+                                PreferenceManager.getDefaultSharedPreferences(SettingsActivity.this);
+                        updatePreview(s.toString(), getContactGroups(sharedPreferences),
+                                getEventKinds(sharedPreferences));
+                    }
+                }
+        );
+
+        // Kinds of events, the preview is updated before the new value is saved
+        for (int kind = 0; kind < BirthdayStore.NB_KINDS; kind++) {
+            final int kindMask = BirthdayStore.kindMask(kind);
+            findPreference(PREF_EVENT_KINDS[kind]).setOnPreferenceChangeListener(
+                    new Preference.OnPreferenceChangeListener() {
+                        @Override
+                        public boolean onPreferenceChange(Preference preference, Object value) {
+                            SharedPreferences sharedPreferences =
+                                    PreferenceManager.getDefaultSharedPreferences(SettingsActivity.this);
+                            int eventKinds = getEventKinds(sharedPreferences);
+                            eventKinds = Boolean.TRUE.equals(value) ? eventKinds | kindMask : eventKinds & ~kindMask;
+                            updatePreview(sharedPreferences.getString(PREF_DAYS_LIMIT_KEY, "7"),
+                                    getContactGroups(sharedPreferences), eventKinds);
+                            return true;
+                        }
+                    }
             );
-            int nbGroups = groupCursor.getCount();
-            CharSequence[] groupNames = new CharSequence[nbGroups + 1];
-            CharSequence[] groupIds = new CharSequence[nbGroups + 1];
-            int i = 0;
-            groupNames[i] = getString(R.string.pref_no_contact_group_selected);
-            groupIds[i] = NO_CONTACT_GROUP_SELECTED;
-            while (groupCursor.moveToNext()) {
-                groupNames[++i] = groupCursor.getString(1);
-                groupIds[i] = groupCursor.getString(0);
+        }
+
+        // Language of the preview, rebuilt before the new value is saved
+        findPreference(PREF_DISABLE_LOCALIZATION).setOnPreferenceChangeListener(
+                new Preference.OnPreferenceChangeListener() {
+                    @Override
+                    public boolean onPreferenceChange(Preference preference, Object value) {
+                        if (previewFormatter != null) {
+                            previewFormatter = createPreviewFormatter(Boolean.TRUE.equals(value));
+                            updatePreview();
+                        }
+                        return true;
+                    }
+                }
+        );
+
+        // Diagnostics preferences
+        findPreference(PREF_DIAGNOSTICS).setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object value) {
+                // The extension runs in the same process
+                Diagnostics.setEnabled((Boolean) value);
+                return true;
+            }
+        });
+        findPreference(PREF_DIAGNOSTICS_REPORT).setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                showDiagnosticsReport();
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+        if (hasFocus) {
+            // A preference dialog has been closed, display the saved values
+            updatePreview();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (contactGroupsTask != null) {
+            contactGroupsCancellationSignal.cancel();
+            contactGroupsTask.cancel(false);
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Load the birthdays, the contact groups and their birthday counts off the main thread.
+     * The groups of the previous opening are displayed in the meantime
+     */
+    private void loadContactGroups() {
+        final Context applicationContext = getApplicationContext();
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        contactGroupsCancellationSignal = cancellationSignal;
+        contactGroupsTask = new AsyncTask<Void, Void, ContactGroups>() {
+
+            private BirthdayCalendar calendar;
+
+            @Override
+            protected ContactGroups doInBackground(Void... params) {
+                try {
+                    // The debug mode dump is left to the extension
+                    BirthdayRetriever birthdayRetriever = new BirthdayRetriever(applicationContext);
+                    calendar = birthdayRetriever.getContactWithBirthdays(applicationContext, false, cancellationSignal);
+                    return birthdayRetriever.getContactGroups(applicationContext, calendar, cancellationSignal);
+                }
+                catch (OperationCanceledException e) {
+                    return null;
+                }
             }
 
-            ListPreference listPreference = (ListPreference) findPreference(PREF_CONTACT_GROUP);
-            listPreference.setEntries(groupNames);
-            listPreference.setEntryValues(groupIds);
-            bindPreferenceSummaryToValue(listPreference);
+            @Override
+            protected void onPostExecute(ContactGroups contactGroups) {
+                contactGroupsTask = null;
+                if (contactGroups != null) {
+                    sContactGroups = contactGroups;
+                    bindContactGroups(contactGroups);
+
+                    previewCalendar = calendar;
+                    previewFormatter = createPreviewFormatter(PreferenceManager.getDefaultSharedPreferences(
+                            SettingsActivity.this).getBoolean(PREF_DISABLE_LOCALIZATION, false));
+                    updatePreview();
+                }
+            }
+        };
+        contactGroupsTask.execute();
+    }
+
+    @SuppressWarnings("deprecation")
+    private void bindContactGroups(ContactGroups contactGroups) {
+        final Resources res = getResources();
+        final int nbGroups = contactGroups.size();
+        CharSequence[] groupNames = new CharSequence[nbGroups];
+        CharSequence[] groupIds = new CharSequence[nbGroups];
+        for (int i = 0; i < nbGroups; i++) {
+            final int birthdayCount = contactGroups.getBirthdayCount(i);
+            groupNames[i] = res.getQuantityString(R.plurals.pref_contact_group_entry_format,
+                    birthdayCount, contactGroups.getTitle(i), birthdayCount);
+            groupIds[i] = contactGroups.getId(i);
         }
-        catch (IndexOutOfBoundsException e) {
-            Log.e(TAG, "Error while building contact group list", e);
+
+        MultiSelectListPreference groupsPreference =
+                (MultiSelectListPreference) findPreference(PREF_CONTACT_GROUPS);
+        groupsPreference.setEntries(groupNames);
+        groupsPreference.setEntryValues(groupIds);
+        groupsPreference.setEnabled(true);
+        sBindPreferenceSummaryToValueListener.onPreferenceChange(
+                groupsPreference, groupsPreference.getValues()
+        );
+    }
+
+    /**
+     * Same templates as the extension, see {@link BirthdayService}
+     */
+    private BirthdayFormatter createPreviewFormatter(boolean disableLocalization) {
+        //noinspection ConstantConditions
+        final Locale systemLocale = Resources.getSystem().getConfiguration().locale;
+        return ResourcesFormatter.create(this, ResourcesFormatter.getLocale(systemLocale, disableLocalization));
+    }
+
+    private void updatePreview() {
+        final SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        updatePreview(sharedPreferences.getString(PREF_DAYS_LIMIT_KEY, "7"), getContactGroups(sharedPreferences),
+                getEventKinds(sharedPreferences));
+    }
+
+    /**
+     * Display the upcoming birthdays with these settings, with a range query over the birthdays in memory
+     */
+    @SuppressWarnings("deprecation")
+    private void updatePreview(String daysLimitValue, Set<String> contactGroupIds, int eventKinds) {
+        if (previewCalendar == null) return;
+
+        int daysLimit;
+        try {
+            daysLimit = Integer.valueOf(daysLimitValue);
         }
-        finally {
-            if (groupCursor != null) groupCursor.close();
+        catch (NumberFormatException e) {
+            // Incomplete value, keep the previous preview
+            return;
         }
+
+        final int today = EpochDays.fromMillis(System.currentTimeMillis(), TimeZone.getDefault());
+        final BitSet selectedRows = previewCalendar.select(contactGroupIds, eventKinds);
+        previewUpcoming.clear();
+        previewCalendar.getUpcomingBirthdays(today, daysLimit, selectedRows, previewUpcoming);
+
+        Preference preview = findPreference(PREF_PREVIEW);
+        if (previewUpcoming.getCount() > 0) {
+            previewFormatter.format(today, previewUpcoming);
+            preview.setTitle(previewFormatter.getExpandedTitle());
+            preview.setSummary(previewFormatter.getExpandedBody());
+        }
+        else {
+            preview.setTitle(R.string.pref_preview_empty);
+            preview.setSummary(null);
+        }
+    }
+
+    private void showDiagnosticsReport() {
+        TextView reportView = new TextView(this);
+        reportView.setTypeface(Typeface.MONOSPACE);
+        reportView.setTextIsSelectable(true);
+        final int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        reportView.setPadding(padding, padding, padding, padding);
+        reportView.setText(Diagnostics.getReport());
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.pref_diagnostics_category)
+                .setView(reportView)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
     }
 
     public static final String PREF_DAYS_LIMIT_KEY = "pref_days_limit";
@@ -126,7 +406,24 @@ public class SettingsActivity extends PreferenceActivity {
         public boolean onPreferenceChange(Preference preference, Object value) {
             String stringValue = value.toString();
 
-            if (preference instanceof ListPreference) {
+            if (preference instanceof MultiSelectListPreference) {
+                // List the names of the selected entries
+                MultiSelectListPreference listPreference = (MultiSelectListPreference) preference;
+                @SuppressWarnings("unchecked")
+                Set<String> values = (Set<String>) value;
+                List<CharSequence> names = new ArrayList<CharSequence>(values.size());
+                CharSequence[] entryValues = listPreference.getEntryValues();
+                for (int i = 0; i < entryValues.length; i++) {
+                    if (values.contains(entryValues[i].toString())) {
+                        names.add(listPreference.getEntries()[i]);
+                    }
+                }
+
+                preference.setSummary(names.isEmpty()
+                        ? preference.getContext().getString(R.string.pref_no_contact_group_selected)
+                        : TextUtils.join(", ", names));
+            }
+            else if (preference instanceof ListPreference) {
                 // For list preferences, look up the correct display value in
                 // the preference's 'entries' list.
                 ListPreference listPreference = (ListPreference) preference;
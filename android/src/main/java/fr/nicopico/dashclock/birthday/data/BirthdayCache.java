@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Persistent index of the birthdays found during the last contact scan.
+ * The index is stored in the application private storage, along with the time of the scan
+ * so that the next refresh only has to look at the contacts updated since then.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 10:12
+ */
+class BirthdayCache {
+
+    private static final String TAG = BirthdayCache.class.getSimpleName();
+
+    private static final String FILE_NAME = "birthdays.idx";
+    private static final int VERSION = 5;
+
+    // The index is shared by the extension and the settings screen
+    private static final Object FILE_LOCK = new Object();
+
+    private final AtomicFile file;
+
+    private long lastSync;
+    private BirthdayStore birthdays;
+
+    BirthdayCache(Context context) {
+        file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Time of the last contact scan, in milliseconds since epoch
+     */
+    long getLastSync() {
+        return lastSync;
+    }
+
+    /**
+     * Birthdays read from the index
+     */
+    BirthdayStore getBirthdays() {
+        return birthdays;
+    }
+
+    /**
+     * Load the index from the storage
+     * @return <code>true</code> if the index is available
+     */
+    boolean read() {
+        synchronized (FILE_LOCK) {
+            DataInputStream in = null;
+            try {
+                FileInputStream fis = file.openRead();
+                in = new DataInputStream(new BufferedInputStream(fis));
+
+                if (in.readInt() != VERSION) {
+                    Log.w(TAG, "Birthday index has an obsolete format, it will be rebuilt");
+                    return false;
+                }
+
+                lastSync = in.readLong();
+
+                int count = in.readInt();
+                BirthdayStore.Builder builder = new BirthdayStore.Builder(count);
+                for (int i = 0; i < count; i++) {
+                    long contactId = in.readLong();
+                    String lookupKey = in.readUTF();
+                    String displayName = in.readUTF();
+                    int date = in.readInt();
+                    int kind = in.readByte();
+                    String label = in.readUTF();
+                    builder.add(contactId, lookupKey.length() > 0 ? lookupKey : null, displayName, date, kind,
+                            label.length() > 0 ? label : null);
+                }
+                birthdays = builder.build();
+                return true;
+            }
+            catch (FileNotFoundException e) {
+                // No index yet
+                return false;
+            }
+            catch (Exception e) {
+                Log.e(TAG, "Unable to read birthday index", e);
+                file.delete();
+                return false;
+            }
+            finally {
+                closeQuietly(in);
+            }
+        }
+    }
+
+    /**
+     * Replace the stored index
+     * @param lastSync time of the contact scan
+     * @param birthdays birthdays to store
+     */
+    void write(long lastSync, BirthdayStore birthdays) {
+        synchronized (FILE_LOCK) {
+            this.lastSync = lastSync;
+            this.birthdays = birthdays;
+
+            FileOutputStream fos = null;
+            try {
+                fos = file.startWrite();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+
+                out.writeInt(VERSION);
+                out.writeLong(lastSync);
+
+                final int count = birthdays.size();
+                out.writeInt(count);
+                for (int row = 0; row < count; row++) {
+                    String lookupKey = birthdays.getLookupKey(row);
+                    out.writeLong(birthdays.getContactId(row));
+                    out.writeUTF(lookupKey != null ? lookupKey : "");
+                    out.writeUTF(birthdays.getDisplayName(row));
+                    out.writeInt(BirthdayDateParser.pack(
+                            birthdays.getYear(row), birthdays.getMonth(row), birthdays.getDay(row)
+                    ));
+                    out.writeByte(birthdays.getKind(row));
+                    String label = birthdays.getLabel(row);
+                    out.writeUTF(label != null ? label : "");
+                }
+
+                out.flush();
+                file.finishWrite(fos);
+            }
+            catch (IOException e) {
+                Log.e(TAG, "Unable to write birthday index", e);
+                if (fos != null) file.failWrite(fos);
+            }
+        }
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            }
+            catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -16,30 +16,34 @@
 
 package fr.nicopico.dashclock.birthday.data;
 
+import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
-import android.database.CursorJoiner;
 import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteException;
+import android.os.Build;
+import android.os.CancellationSignal;
 import android.preference.PreferenceManager;
 import android.provider.ContactsContract;
+import android.text.TextUtils;
 import android.util.Log;
 
-import org.joda.time.MonthDay;
-
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
+import java.util.Set;
 
 import fr.nicopico.dashclock.birthday.SettingsActivity;
 import fr.nicopico.dashclock.birthday.BuildConfig;
-
-import static android.database.CursorJoiner.Result.*;
+import fr.nicopico.dashclock.birthday.DebugDumpProvider;
 
 /**
  * User: Nicolas PICON
@@ -49,99 +53,550 @@ public class BirthdayRetriever {
 
     private static final String TAG = BirthdayRetriever.class.getSimpleName();
 
-    private static final Pattern regexDate;
-
-    static {
-        try {
-            regexDate = Pattern.compile("(\\d{4}|-)-(\\d{2})-(\\d{2})", Pattern.COMMENTS);
-        }
-        catch (PatternSyntaxException ex) {
-            throw new Error(ex);
-        }
-    }
+    // Columns of the birthday cursor
+    private static final int COLUMN_CONTACT_ID = 0;
+    private static final int COLUMN_START_DATE = 1;
+    private static final int COLUMN_LOOKUP_KEY = 2;
+    private static final int COLUMN_TYPE = 3;
+    // Sort keys of EVENTS_SORT_ORDER, only read by the debug dump
+    private static final int COLUMN_RAW_CONTACT_ID = 4;
+    private static final int COLUMN_IS_PRIMARY = 5;
+    private static final int COLUMN_IS_SUPER_PRIMARY = 6;
+    private static final int COLUMN_DISPLAY_NAME = 7;
+    private static final int COLUMN_LABEL = 8;
+
+    // The same event is usually found on several raw contacts (one per account): the first row of each contact
+    // wins, so the event chosen by the user as default comes first, then the one of the oldest raw contact
+    private static final String EVENTS_SORT_ORDER = String.format(
+            "%s desc, %s desc, %s",
+            ContactsContract.Data.IS_SUPER_PRIMARY,
+            ContactsContract.Data.IS_PRIMARY,
+            ContactsContract.Data.RAW_CONTACT_ID
+    );
+
+    // Display names and labels are not included in the debug dump
+    private static final int NB_DEBUG_COLUMNS = COLUMN_DISPLAY_NAME;
+
+    // Restrict the group memberships to the contacts with an event, with a subquery on the Data table
+    private static final String BIRTHDAY_FILTER_SELECTION = String.format(
+            "%s in (select %s from view_data where %s = ?)",
+            ContactsContract.Data.CONTACT_ID,
+            ContactsContract.Data.CONTACT_ID,
+            ContactsContract.Data.MIMETYPE
+    );
 
     private final SharedPreferences sharedPreferences;
+    private final BirthdayCache cache;
+    // Time of the last retrieval, 0 if the changes of the contacts cannot be tracked
+    private long lastSync;
+
+    // Restrict the birthdays to the members of some groups, %s is replaced by the group parameters
+    private static final String GROUP_FILTER_SELECTION = String.format(
+            "%s in (select %s from view_data where %s = ? and %s in (%%s))",
+            ContactsContract.Data.CONTACT_ID,
+            ContactsContract.Data.CONTACT_ID,
+            ContactsContract.Data.MIMETYPE,
+            ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID
+    );
+
+    // Set to false when the contacts provider rejects BIRTHDAY_FILTER_SELECTION
+    private boolean birthdayFilterSupported = true;
+    // Set to false when the contacts provider rejects GROUP_FILTER_SELECTION
+    private boolean groupFilterSupported = true;
+
+    // Buffer used to read birthday dates without allocating a String for each row
+    private final CharArrayBuffer dateBuffer = new CharArrayBuffer(32);
+    private CharBuffer dateChars = CharBuffer.wrap(dateBuffer.data);
+    private final EventReader eventReader = new EventReader();
 
     public BirthdayRetriever(Context context) {
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        cache = new BirthdayCache(context);
     }
 
-    public List<Birthday> getContactWithBirthdays(Context context, String contactGroupId) {
+    /**
+     * Retrieve the birthdays of all the contacts, along with their contact groups
+     * @param context Context
+     * @param cancellationSignal signal to cancel the retrieval, can be <code>null</code>
+     * @return birthdays indexed by day of year
+     * @throws android.os.OperationCanceledException if the retrieval is cancelled
+     */
+    public BirthdayCalendar getContactWithBirthdays(Context context, CancellationSignal cancellationSignal) {
+        final boolean debugMode = sharedPreferences.getBoolean(SettingsActivity.PREF_DEBUG_MODE, false);
+        return getContactWithBirthdays(context, debugMode, cancellationSignal);
+    }
+
+    /**
+     * @param debugMode send the birthdays by e-mail, see {@link SettingsActivity#PREF_DEBUG_MODE}
+     * @see #getContactWithBirthdays(Context, CancellationSignal)
+     */
+    public BirthdayCalendar getContactWithBirthdays(Context context, boolean debugMode,
+                                                    CancellationSignal cancellationSignal) {
         ContentResolver contentResolver = context.getContentResolver();
+        // Incremental refresh relies on CONTACT_LAST_UPDATED_TIMESTAMP and DeletedContacts (API 18)
+        final boolean useCache = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+        final long syncTime = System.currentTimeMillis();
+
+        BirthdayStore result = null;
+        if (useCache && !debugMode) {
+            result = refreshFromCache(context, contentResolver, syncTime, cancellationSignal);
+        }
+
+        if (result == null) {
+            Diagnostics.cacheMiss(Diagnostics.CACHE_INDEX);
+            // Retrieve all contacts with birthdays
+            BirthdayStore.Builder builder = readBirthdays(
+                    context, contentResolver, 0, debugMode, cancellationSignal
+            );
+            long timer = Diagnostics.start();
+            result = builder.build();
+            Diagnostics.stop(Diagnostics.PHASE_SORT, timer);
+
+            if (useCache) {
+                cache.write(syncTime, result);
+            }
+        }
+
+        else {
+            Diagnostics.cacheHit(Diagnostics.CACHE_INDEX);
+        }
+
+        long timer = Diagnostics.start();
+        GroupMemberships memberships = readGroupMemberships(contentResolver, result, cancellationSignal);
+        Diagnostics.stop(Diagnostics.PHASE_GROUPS, timer);
+
+        timer = Diagnostics.start();
+        BirthdayCalendar calendar = new BirthdayCalendar(result, memberships);
+        Diagnostics.stop(Diagnostics.PHASE_SORT, timer);
+
+        lastSync = useCache ? syncTime : 0;
+        return calendar;
+    }
+
+    /**
+     * Apply to the birthdays the changes of the contacts modified since the last retrieval,
+     * only the birthdays and the group memberships of these contacts are queried
+     * @param calendar birthdays returned by the last retrieval
+     * @param cancellationSignal signal to cancel the retrieval, can be <code>null</code>
+     * @return <code>calendar</code> if the changes do not affect any birthday or group membership,
+     * the updated birthdays otherwise, or <code>null</code> if a full retrieval is needed
+     * @throws android.os.OperationCanceledException if the retrieval is cancelled
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public BirthdayCalendar updateContactWithBirthdays(Context context, BirthdayCalendar calendar,
+                                                       CancellationSignal cancellationSignal) {
         final boolean debugMode = sharedPreferences.getBoolean(SettingsActivity.PREF_DEBUG_MODE, false);
+        if (lastSync == 0 || debugMode) {
+            return null;
+        }
 
-        // Retrieve all contacts with birthdays
-        Cursor cursorBirthdays = getBirthdaysCursor(contentResolver);
-        Cursor cursorGroups = null;
+        ContentResolver contentResolver = context.getContentResolver();
+        final long syncTime = System.currentTimeMillis();
+        if (isDeletionLogPurged(lastSync, syncTime)) {
+            return null;
+        }
 
-        //noinspection ConstantConditions
-        if (cursorBirthdays == null) {
-            return new ArrayList<Birthday>(0);
+        long timer = Diagnostics.start();
+        Set<Long> deletedContactIds = getDeletedContactIds(contentResolver, lastSync, cancellationSignal);
+        if (deletedContactIds == null) {
+            return null;
+        }
+        Set<Long> changedContactIds = getUpdatedContactIds(contentResolver, lastSync, cancellationSignal);
+        changedContactIds.addAll(deletedContactIds);
+        Diagnostics.stop(Diagnostics.PHASE_QUERY, timer);
+
+        if (changedContactIds.isEmpty()) {
+            lastSync = syncTime;
+            return calendar;
+        }
+
+        // Current birthdays and group memberships of the changed contacts
+        BirthdayStore changes = readBirthdays(context, contentResolver, lastSync, false, cancellationSignal)
+                .build();
+        // A contact updated after the query of the changed ones is replaced as well
+        for (int row = 0, count = changes.size(); row < count; row++) {
+            changedContactIds.add(changes.getContactId(row));
+        }
+        long[] changedIds = new long[changedContactIds.size()];
+        int i = 0;
+        for (Long contactId : changedContactIds) {
+            changedIds[i++] = contactId;
+        }
+        Arrays.sort(changedIds);
+        timer = Diagnostics.start();
+        GroupMemberships changedMemberships = new GroupMemberships(changes);
+        Cursor c = getGroupMembershipsCursor(contentResolver, false, lastSync, cancellationSignal);
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    changedMemberships.add(c.getLong(0), c.getLong(1));
+                }
+            }
+            finally {
+                c.close();
+            }
+        }
+        Diagnostics.stop(Diagnostics.PHASE_GROUPS, timer);
+
+        final BirthdayStore birthdays = calendar.getStore();
+        final GroupMemberships memberships = calendar.getMemberships();
+        if (describe(birthdays, memberships, changedIds).equals(describe(changes, changedMemberships, null))) {
+            // Contact changes unrelated to the birthdays
+            lastSync = syncTime;
+            return calendar;
+        }
+
+        // Replace the birthdays and the group memberships of the changed contacts
+        timer = Diagnostics.start();
+        BirthdayStore.Builder builder = new BirthdayStore.Builder(birthdays.size() + changes.size());
+        for (int row = 0, count = birthdays.size(); row < count; row++) {
+            if (Arrays.binarySearch(changedIds, birthdays.getContactId(row)) < 0) {
+                builder.add(birthdays, row);
+            }
+        }
+        for (int row = 0, count = changes.size(); row < count; row++) {
+            builder.add(changes, row);
+        }
+        BirthdayStore updatedBirthdays = builder.build();
+
+        GroupMemberships updatedMemberships = new GroupMemberships(updatedBirthdays);
+        updatedMemberships.addAll(memberships, birthdays, changedIds);
+        updatedMemberships.addAll(changedMemberships, changes, new long[0]);
+        BirthdayCalendar updatedCalendar = new BirthdayCalendar(updatedBirthdays, updatedMemberships);
+        Diagnostics.stop(Diagnostics.PHASE_SORT, timer);
+
+        cache.write(syncTime, updatedBirthdays);
+        lastSync = syncTime;
+        return updatedCalendar;
+    }
+
+    /**
+     * @param contactIds sorted ids of the contacts to describe, all the contacts if <code>null</code>
+     * @return sorted description of the birthdays and the groups of the contacts, to compare them
+     */
+    private static List<String> describe(BirthdayStore birthdays, GroupMemberships memberships,
+                                         long[] contactIds) {
+        List<String> descriptions = new ArrayList<String>();
+        for (int row = 0, count = birthdays.size(); row < count; row++) {
+            final long contactId = birthdays.getContactId(row);
+            if (contactIds == null || Arrays.binarySearch(contactIds, contactId) >= 0) {
+                descriptions.add(contactId
+                        + "|" + birthdays.getKind(row)
+                        + "|" + birthdays.getYear(row) + "-" + birthdays.getMonth(row) + "-" + birthdays.getDay(row)
+                        + "|" + birthdays.getLookupKey(row)
+                        + "|" + birthdays.getDisplayName(row)
+                        + "|" + birthdays.getLabel(row)
+                        + "|" + Arrays.toString(memberships.getGroupIds(contactId)));
+            }
+        }
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+
+    /**
+     * Retrieve the contact groups, and count their contacts having a birthday, other events are not counted.
+     * The counts come from the group memberships of the birthdays, read in a single pass
+     * @param calendar birthdays of all the contacts
+     * @param cancellationSignal signal to cancel the retrieval, can be <code>null</code>
+     * @throws android.os.OperationCanceledException if the retrieval is cancelled
+     */
+    public ContactGroups getContactGroups(Context context, BirthdayCalendar calendar,
+                                          CancellationSignal cancellationSignal) {
+        final GroupMemberships memberships = calendar.getMemberships();
+        final BitSet birthdayRows = calendar.getStore().selectKinds(
+                BirthdayStore.kindMask(BirthdayStore.KIND_BIRTHDAY)
+        );
+
+        Cursor c = context.getContentResolver().query(
+                ContactsContract.Groups.CONTENT_URI,
+                new String[] {
+                        ContactsContract.Groups._ID,
+                        ContactsContract.Groups.TITLE
+                },
+                null, null, null, cancellationSignal
+        );
+        if (c == null) {
+            return new ContactGroups(new String[0], new String[0], new int[0]);
         }
 
-        List<Birthday> result = new ArrayList<Birthday>(cursorBirthdays.getCount());
         try {
-            Birthday birthday;
+            final int nbGroups = c.getCount();
+            String[] ids = new String[nbGroups];
+            String[] titles = new String[nbGroups];
+            int[] birthdayCounts = new int[nbGroups];
+            for (int i = 0; c.moveToNext(); i++) {
+                ids[i] = c.getString(0);
+                titles[i] = c.getString(1);
+                birthdayCounts[i] = memberships.countContacts(c.getLong(0), birthdayRows);
+            }
+            return new ContactGroups(ids, titles, birthdayCounts);
+        }
+        finally {
+            c.close();
+        }
+    }
 
-            // DEBUG MODE
-            StringBuilder sb = null;
-            int nbColumns = 0;
-            if (debugMode) {
-                sb = new StringBuilder();
-                nbColumns = cursorBirthdays.getColumnCount();
-                for (String s : cursorBirthdays.getColumnNames()) {
-                    sb.append(s).append(';');
+    /**
+     * Retrieve the upcoming birthdays in a single pass over the contacts, without keeping the other ones.
+     * Only the contact ids are kept, to ignore the duplicate events, but every call queries all the birthdays
+     * @param today today epoch day
+     * @param daysLimit number of days to look for after <code>today</code>
+     * @param contactGroupIds only retrieve the members of these groups, all contacts if empty
+     * @param kindMask only retrieve these kinds of events, see {@link BirthdayStore#kindMask(int)}
+     * @param upcoming receive the upcoming birthdays, must be cleared
+     * @param cancellationSignal signal to cancel the retrieval, can be <code>null</code>
+     * @return number of events of all the contacts, as stored by {@link #getContactWithBirthdays}, or -1 if
+     * the provider only returned the members of the groups (see {@link #countEvents})
+     * @throws android.os.OperationCanceledException if the retrieval is cancelled
+     */
+    public int getUpcomingBirthdays(Context context, int today, int daysLimit, Set<String> contactGroupIds,
+                                    int kindMask, UpcomingBirthdays upcoming,
+                                    CancellationSignal cancellationSignal) {
+        ContentResolver contentResolver = context.getContentResolver();
+        eventReader.startPass();
+
+        // Let the provider filter the group members, to only transfer their birthdays
+        long timer = Diagnostics.start();
+        Cursor c = null;
+        long[] memberIds = null;
+        if (!contactGroupIds.isEmpty()) {
+            if (groupFilterSupported) {
+                try {
+                    c = getBirthdaysCursor(contentResolver, 0, contactGroupIds, cancellationSignal);
+                }
+                catch (SQLiteException e) {
+                    Log.w(TAG, "Group filter rejected by the contacts provider, filter the members locally", e);
+                    groupFilterSupported = false;
+                }
+                catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Group filter rejected by the contacts provider, filter the members locally", e);
+                    groupFilterSupported = false;
                 }
-                sb.append("in_group;");
-                sb.append("is_valid\n");
             }
+            if (c == null) {
+                memberIds = getGroupMemberIds(contentResolver, contactGroupIds, cancellationSignal);
+            }
+        }
+        if (c == null) {
+            c = getBirthdaysCursor(contentResolver, 0, null, cancellationSignal);
+        }
+        Diagnostics.addRows(c.getCount());
+        Diagnostics.stop(Diagnostics.PHASE_QUERY, timer);
 
-            boolean noGroupSelected = SettingsActivity.NO_CONTACT_GROUP_SELECTED.equals(contactGroupId);
-            cursorGroups = getGroupsCursor(contentResolver, contactGroupId, noGroupSelected);
-            CursorJoiner joiner = new CursorJoiner(
-                    cursorBirthdays, new String[] { ContactsContract.Data.LOOKUP_KEY },
-                    cursorGroups, new String[] { ContactsContract.Data.LOOKUP_KEY }
-            );
+        timer = Diagnostics.start();
+        final boolean groupsFiltered = !contactGroupIds.isEmpty() && memberIds == null;
+        int nbEvents = 0;
+        try {
+            while (c.moveToNext()) {
+                if (cancellationSignal != null) {
+                    cancellationSignal.throwIfCanceled();
+                }
 
-            for (CursorJoiner.Result joinerResult : joiner) {
-                switch (joinerResult) {
-                    case LEFT:
-                    case BOTH:
-                        birthday = buildBirthday(contentResolver, cursorBirthdays);
-
-                        // DEBUG MODE
-                        if (debugMode) {
-                            for (int i = 0; i < nbColumns; i++) {
-                                sb.append(cursorBirthdays.getString(i)).append(';');
-                            }
-                            sb.append(joinerResult == BOTH).append(';');
-                            sb.append(birthday != null);
-                            sb.append('\n');
-                        }
-
-                        if (birthday != null 
-                            && (joinerResult == BOTH || (joinerResult == LEFT && noGroupSelected))) {
-                            result.add(birthday);
-                        }
-                        break;
-
-                    case RIGHT:
-                        // Nothing to do
-                        break;
+                final long contactId = c.getLong(COLUMN_CONTACT_ID);
+                final int kind = EventReader.getKind(c.getInt(COLUMN_TYPE));
+                if (eventReader.isDuplicate(contactId, kind)) continue;
+
+                // Same events as the ones stored by readBirthdays()
+                int date = readDate(c);
+                if (!eventReader.accept(contactId, kind, date, !c.isNull(COLUMN_DISPLAY_NAME))) continue;
+                nbEvents++;
+
+                if ((kindMask & BirthdayStore.kindMask(kind)) == 0) continue;
+
+                int days = EpochDays.daysUntil(today, date);
+                if (days > daysLimit) continue;
+
+                if (memberIds != null && Arrays.binarySearch(memberIds, contactId) < 0) continue;
+
+                // Only read the strings of the birthdays that may be displayed
+                if (upcoming.isCandidate(days)) {
+                    upcoming.offer(days, contactId, c.getString(COLUMN_LOOKUP_KEY), c.getString(COLUMN_DISPLAY_NAME),
+                            date, kind, readLabel(c));
+                }
+                else {
+                    upcoming.skip();
                 }
             }
+        }
+        finally {
+            c.close();
+        }
+        Diagnostics.stop(Diagnostics.PHASE_READ, timer);
+        logEventReader();
 
-            // DEBUG MODE
+        return groupsFiltered ? -1 : nbEvents;
+    }
+
+    /**
+     * Count the events of all the contacts without keeping them, as stored by {@link #getContactWithBirthdays}
+     * @param cancellationSignal signal to cancel the count, can be <code>null</code>
+     * @throws android.os.OperationCanceledException if the count is cancelled
+     */
+    public int countEvents(Context context, CancellationSignal cancellationSignal) {
+        long timer = Diagnostics.start();
+        Cursor c = getBirthdaysCursor(context.getContentResolver(), 0, null, cancellationSignal);
+        Diagnostics.addRows(c.getCount());
+        Diagnostics.stop(Diagnostics.PHASE_QUERY, timer);
+
+        timer = Diagnostics.start();
+        eventReader.startPass();
+        int nbEvents = 0;
+        try {
+            while (c.moveToNext()) {
+                if (cancellationSignal != null) {
+                    cancellationSignal.throwIfCanceled();
+                }
+
+                final long contactId = c.getLong(COLUMN_CONTACT_ID);
+                final int kind = EventReader.getKind(c.getInt(COLUMN_TYPE));
+                if (eventReader.isDuplicate(contactId, kind)) continue;
+
+                if (eventReader.accept(contactId, kind, readDate(c), !c.isNull(COLUMN_DISPLAY_NAME))) {
+                    nbEvents++;
+                }
+            }
+        }
+        finally {
+            c.close();
+        }
+        Diagnostics.stop(Diagnostics.PHASE_READ, timer);
+        return nbEvents;
+    }
+
+    /**
+     * Update the birthday index with the contacts modified since the last scan
+     * @return up-to-date birthdays, or <code>null</code> if a full scan is needed
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private BirthdayStore refreshFromCache(Context context, ContentResolver contentResolver,
+                                           long syncTime, CancellationSignal cancellationSignal) {
+        if (!cache.read()) {
+            return null;
+        }
+
+        final long lastSync = cache.getLastSync();
+        if (isDeletionLogPurged(lastSync, syncTime)) {
+            Log.i(TAG, "Birthday index is older than the deleted contacts log, it will be rebuilt");
+            return null;
+        }
+        Set<Long> deletedContactIds = getDeletedContactIds(contentResolver, lastSync, cancellationSignal);
+        if (deletedContactIds == null || !deletedContactIds.isEmpty()) {
+            // Deleted contacts cannot be matched with the index, rebuild it
+            return null;
+        }
+
+        BirthdayStore cachedBirthdays = cache.getBirthdays();
+        Set<Long> updatedContactIds = getUpdatedContactIds(contentResolver, lastSync, cancellationSignal);
+        if (updatedContactIds.isEmpty()) {
+            return cachedBirthdays;
+        }
+
+        // Current values of the updated contacts, including the ones updated after the previous query
+        BirthdayStore updates = readBirthdays(context, contentResolver, lastSync, false, cancellationSignal)
+                .build();
+        for (int row = 0, count = updates.size(); row < count; row++) {
+            updatedContactIds.add(updates.getContactId(row));
+        }
+
+        // Keep the entries of the contacts that have not changed, and add the current values of the updated ones
+        long timer = Diagnostics.start();
+        BirthdayStore.Builder builder = new BirthdayStore.Builder(cachedBirthdays.size() + updates.size());
+        for (int row = 0, count = cachedBirthdays.size(); row < count; row++) {
+            if (!updatedContactIds.contains(cachedBirthdays.getContactId(row))) {
+                builder.add(cachedBirthdays, row);
+            }
+        }
+        for (int row = 0, count = updates.size(); row < count; row++) {
+            builder.add(updates, row);
+        }
+        BirthdayStore birthdays = builder.build();
+        Diagnostics.stop(Diagnostics.PHASE_SORT, timer);
+
+        cache.write(syncTime, birthdays);
+        return birthdays;
+    }
+
+    /**
+     * Read the birthdays of the contacts
+     * @param updatedSince if greater than 0, only read contacts updated after this time
+     * @return builder of the birthdays read
+     */
+    private BirthdayStore.Builder readBirthdays(Context context, ContentResolver contentResolver,
+                                                long updatedSince, boolean debugMode,
+                                                CancellationSignal cancellationSignal) {
+        long timer = Diagnostics.start();
+        Cursor cursorBirthdays = getBirthdaysCursor(contentResolver, updatedSince, null, cancellationSignal);
+        final int nbRows = cursorBirthdays.getCount();
+        Diagnostics.stop(Diagnostics.PHASE_QUERY, timer);
+        Diagnostics.addRows(nbRows);
+
+        BirthdayStore.Builder builder = new BirthdayStore.Builder(nbRows);
+        eventReader.startPass();
+
+        // DEBUG MODE
+        // Rows are written to the dump file as they are read, in the same pass over the cursor
+        DebugDump dump = null;
+        try {
             if (debugMode) {
-                // Send email debug content by e-mail
-                Intent mailIntent = new Intent(Intent.ACTION_SEND);
-                mailIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                mailIntent.setType("message/rfc822");
-                mailIntent.putExtra(Intent.EXTRA_EMAIL, new String[] { BuildConfig.DEBUG_MODE_RECIPIENT });
-                mailIntent.putExtra(Intent.EXTRA_SUBJECT, BuildConfig.DEBUG_MODE_SUBJECT);
-                mailIntent.putExtra(Intent.EXTRA_TEXT, sb.toString());
+                dump = new DebugDump(context, cursorBirthdays, NB_DEBUG_COLUMNS);
+            }
+
+            timer = Diagnostics.start();
+            while (cursorBirthdays.moveToNext()) {
+                if (cancellationSignal != null) {
+                    cancellationSignal.throwIfCanceled();
+                }
+
+                final long contactId = cursorBirthdays.getLong(COLUMN_CONTACT_ID);
+                final int kind = EventReader.getKind(cursorBirthdays.getInt(COLUMN_TYPE));
+                if (eventReader.isDuplicate(contactId, kind)) {
+                    // DEBUG MODE
+                    if (dump != null) {
+                        dump.writeRow(cursorBirthdays, false);
+                    }
+                    continue;
+                }
+
+                int date = readDate(cursorBirthdays);
+                String displayName = cursorBirthdays.getString(COLUMN_DISPLAY_NAME);
+                boolean isValid = eventReader.accept(contactId, kind, date, displayName != null);
+
+                // DEBUG MODE
+                if (dump != null) {
+                    dump.writeRow(cursorBirthdays, isValid);
+                }
 
-                context.startActivity(mailIntent);
+                if (isValid) {
+                    builder.add(
+                            contactId,
+                            cursorBirthdays.getString(COLUMN_LOOKUP_KEY),
+                            displayName,
+                            date,
+                            kind,
+                            readLabel(cursorBirthdays)
+                    );
+                }
+            }
+            Diagnostics.stop(Diagnostics.PHASE_READ, timer);
+            logEventReader();
+
+            // DEBUG MODE
+            if (dump != null) {
+                final boolean dumpWritten = dump.close();
+                dump = null;
+
+                if (dumpWritten) {
+                    // Send the debug dump by e-mail, as an attachment
+                    Intent mailIntent = new Intent(Intent.ACTION_SEND);
+                    mailIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                    mailIntent.setType("message/rfc822");
+                    mailIntent.putExtra(Intent.EXTRA_EMAIL, new String[] { BuildConfig.DEBUG_MODE_RECIPIENT });
+                    mailIntent.putExtra(Intent.EXTRA_SUBJECT, BuildConfig.DEBUG_MODE_SUBJECT);
+                    mailIntent.putExtra(Intent.EXTRA_TEXT, nbRows + " rows");
+                    mailIntent.putExtra(Intent.EXTRA_STREAM, DebugDumpProvider.DUMP_URI);
+
+                    context.startActivity(mailIntent);
+                }
 
                 // Disable debug mode to prevent spamming the user
                 sharedPreferences.edit()
@@ -151,34 +606,53 @@ public class BirthdayRetriever {
         }
         finally {
             cursorBirthdays.close();
-            if (cursorGroups != null) cursorGroups.close();
+            if (dump != null) {
+                // Interrupted retrieval
+                dump.close();
+            }
         }
-
-        Collections.sort(result);
-        return result;
+        return builder;
     }
 
-    private Cursor getBirthdaysCursor(ContentResolver contentResolver) {
+    /**
+     * Retrieve the events of the contacts, all kinds at once: each row is routed by {@link EventReader#getKind(int)}
+     * @param updatedSince if greater than 0, only retrieve contacts updated after this time
+     * @param contactGroupIds if not <code>null</code>, only retrieve the members of these groups
+     */
+    private Cursor getBirthdaysCursor(ContentResolver contentResolver, long updatedSince,
+                                      Set<String> contactGroupIds, CancellationSignal cancellationSignal) {
         final String[] columns = {
                 ContactsContract.Data.CONTACT_ID,
                 ContactsContract.CommonDataKinds.Event.START_DATE,
-                ContactsContract.Data.LOOKUP_KEY
-
+                ContactsContract.Data.LOOKUP_KEY,
+                ContactsContract.CommonDataKinds.Event.TYPE,
+                ContactsContract.Data.RAW_CONTACT_ID,
+                ContactsContract.Data.IS_PRIMARY,
+                ContactsContract.Data.IS_SUPER_PRIMARY,
+                ContactsContract.Data.DISPLAY_NAME_PRIMARY,
+                ContactsContract.CommonDataKinds.Event.LABEL
         };
 
+        String selection = ContactsContract.Data.MIMETYPE + " = ?";
+        List<String> selectionArgs = new ArrayList<String>();
+        selectionArgs.add(ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE);
+        if (updatedSince > 0) {
+            selection += " and " + ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?";
+            selectionArgs.add(String.valueOf(updatedSince));
+        }
+        if (contactGroupIds != null) {
+            selection += " and " + String.format(GROUP_FILTER_SELECTION, parameters(contactGroupIds.size()));
+            selectionArgs.add(ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE);
+            selectionArgs.addAll(contactGroupIds);
+        }
+
         final Cursor birthdayCursor = contentResolver.query(
                 ContactsContract.Data.CONTENT_URI,
                 columns,
-                String.format(
-                        "%s = ? and %s = '%s'",
-                        ContactsContract.Data.MIMETYPE,
-                        ContactsContract.CommonDataKinds.Event.TYPE,
-                        ContactsContract.CommonDataKinds.Event.TYPE_BIRTHDAY
-                ),
-                new String[] {
-                        ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE
-                },
-                ContactsContract.Data.LOOKUP_KEY
+                selection,
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                EVENTS_SORT_ORDER,
+                cancellationSignal
         );
 
         if (birthdayCursor != null) {
@@ -190,72 +664,229 @@ public class BirthdayRetriever {
         }
     }
 
-    private Cursor getGroupsCursor(ContentResolver contentResolver, String contactGroupId, boolean noGroupSelected) {
-        final String[] columns = { ContactsContract.Data.LOOKUP_KEY };
+    /**
+     * The contacts provider purges the deleted contacts after {@link ContactsContract.DeletedContacts#DAYS_KEPT_MILLISECONDS}:
+     * the contacts deleted since an older sync cannot be known
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static boolean isDeletionLogPurged(long since, long now) {
+        return now - since >= ContactsContract.DeletedContacts.DAYS_KEPT_MILLISECONDS;
+    }
 
-        Cursor groupCursor = null;
-        if (!noGroupSelected) {
-            String selection = String.format(
-                    "%s = ? and %s = ?",
-                    ContactsContract.Data.MIMETYPE,
-                    ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID
-            );
-            String[] selectionArgs = {
-                    ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE,
-                    contactGroupId
-            };
-
-            groupCursor = contentResolver.query(
-                    ContactsContract.Data.CONTENT_URI,
-                    columns,
-                    selection,
-                    selectionArgs,
-                    ContactsContract.Data.LOOKUP_KEY
-            );
-        }
+    /**
+     * @return ids of the contacts deleted since <code>since</code>, or <code>null</code> if unavailable
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private Set<Long> getDeletedContactIds(ContentResolver contentResolver, long since,
+                                           CancellationSignal cancellationSignal) {
+        Cursor c = contentResolver.query(
+                ContactsContract.DeletedContacts.CONTENT_URI,
+                new String[] { ContactsContract.DeletedContacts.CONTACT_ID },
+                ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?",
+                new String[] { String.valueOf(since) },
+                null,
+                cancellationSignal
+        );
 
-        if (groupCursor != null) {
-            return groupCursor;
+        // Failsafe: the deleted contacts are unknown if the provider does not answer
+        if (c == null) return null;
+
+        Set<Long> contactIds = new HashSet<Long>();
+        try {
+            while (c.moveToNext()) {
+                contactIds.add(c.getLong(0));
+            }
         }
-        else {
-            // Return an empty cursor instead of null
-            return new MatrixCursor(columns);
+        finally {
+            c.close();
         }
+        return contactIds;
     }
 
-    private Birthday buildBirthday(ContentResolver contentResolver, Cursor c) {
-        String birthDate = c.getString(1);
-        if (birthDate == null) return null;
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private Set<Long> getUpdatedContactIds(ContentResolver contentResolver, long since,
+                                           CancellationSignal cancellationSignal) {
+        Set<Long> contactIds = new HashSet<Long>();
+        Cursor c = contentResolver.query(
+                ContactsContract.Contacts.CONTENT_URI,
+                new String[] { ContactsContract.Contacts._ID },
+                ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?",
+                new String[] { String.valueOf(since) },
+                null,
+                cancellationSignal
+        );
 
-        // Analyze birthday string
-        try {
-            Matcher regexMatcher = regexDate.matcher(birthDate);
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    contactIds.add(c.getLong(0));
+                }
+            }
+            finally {
+                c.close();
+            }
+        }
+        return contactIds;
+    }
 
-            if (regexMatcher.find()) {
-                Birthday birthday = new Birthday(contentResolver, c.getLong(0));
+    /**
+     * Read the contact groups of the birthdays, in a single scan of the group memberships
+     */
+    private GroupMemberships readGroupMemberships(ContentResolver contentResolver, BirthdayStore birthdays,
+                                                  CancellationSignal cancellationSignal) {
+        GroupMemberships memberships = new GroupMemberships(birthdays);
+
+        // Let the provider skip the contacts without birthday, if it supports the subquery
+        Cursor c = null;
+        if (birthdayFilterSupported) {
+            try {
+                c = getGroupMembershipsCursor(contentResolver, true, 0, cancellationSignal);
+            }
+            catch (SQLiteException e) {
+                Log.w(TAG, "Birthday filter rejected by the contacts provider, read all group memberships", e);
+                birthdayFilterSupported = false;
+            }
+            catch (IllegalArgumentException e) {
+                Log.w(TAG, "Birthday filter rejected by the contacts provider, read all group memberships", e);
+                birthdayFilterSupported = false;
+            }
+        }
+        if (c == null) {
+            c = getGroupMembershipsCursor(contentResolver, false, 0, cancellationSignal);
+        }
 
-                // Birthday *must* have a display name
-                if (birthday.displayName == null) return null;
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    if (cancellationSignal != null) {
+                        cancellationSignal.throwIfCanceled();
+                    }
+                    memberships.add(c.getLong(0), c.getLong(1));
+                }
+            }
+            finally {
+                c.close();
+            }
+        }
+        return memberships;
+    }
 
-                birthday.birthdayDate = new MonthDay(
-                        Integer.parseInt(regexMatcher.group(2)),
-                        Integer.parseInt(regexMatcher.group(3))
-                );
+    /**
+     * @param updatedSince if greater than 0, only read contacts updated after this time
+     */
+    private Cursor getGroupMembershipsCursor(ContentResolver contentResolver, boolean onlyBirthdays,
+                                             long updatedSince, CancellationSignal cancellationSignal) {
+        String selection = ContactsContract.Data.MIMETYPE + " = ?";
+        List<String> selectionArgs = new ArrayList<String>();
+        selectionArgs.add(ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE);
+        if (onlyBirthdays) {
+            selection += " and " + BIRTHDAY_FILTER_SELECTION;
+            selectionArgs.add(ContactsContract.CommonDataKinds.Event.CONTENT_ITEM_TYPE);
+        }
+        if (updatedSince > 0) {
+            selection += " and " + ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?";
+            selectionArgs.add(String.valueOf(updatedSince));
+        }
 
-                if (!"-".equals(regexMatcher.group(1))) {
-                    birthday.year = Integer.parseInt(regexMatcher.group(1));
-                    birthday.unknownYear = false;
-                }
+        return contentResolver.query(
+                ContactsContract.Data.CONTENT_URI,
+                new String[] {
+                        ContactsContract.Data.CONTACT_ID,
+                        ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID
+                },
+                selection,
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null,
+                cancellationSignal
+        );
+    }
+
+    /**
+     * @return sorted ids of the contacts belonging to at least one of the groups
+     */
+    private long[] getGroupMemberIds(ContentResolver contentResolver, Set<String> contactGroupIds,
+                                     CancellationSignal cancellationSignal) {
+        List<String> selectionArgs = new ArrayList<String>(contactGroupIds.size() + 1);
+        selectionArgs.add(ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE);
+        selectionArgs.addAll(contactGroupIds);
+
+        Cursor c = contentResolver.query(
+                ContactsContract.Data.CONTENT_URI,
+                new String[] { ContactsContract.Data.CONTACT_ID },
+                String.format(
+                        "%s = ? and %s in (%s)",
+                        ContactsContract.Data.MIMETYPE,
+                        ContactsContract.CommonDataKinds.GroupMembership.GROUP_ROW_ID,
+                        parameters(contactGroupIds.size())
+                ),
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null,
+                cancellationSignal
+        );
 
-                return birthday;
+        long[] contactIds = new long[0];
+        if (c != null) {
+            try {
+                contactIds = new long[c.getCount()];
+                for (int i = 0; c.moveToNext(); i++) {
+                    contactIds[i] = c.getLong(0);
+                }
+            }
+            finally {
+                c.close();
             }
         }
-        catch (Exception e) {
-            Log.e(TAG, "Error while analyzing birthday", e);
-            return null;
+        Arrays.sort(contactIds);
+        return contactIds;
+    }
+
+    /**
+     * @return <code>nbParameters</code> SQL parameters, separated by commas
+     */
+    private static String parameters(int nbParameters) {
+        StringBuilder sb = new StringBuilder(nbParameters * 2);
+        for (int i = 0; i < nbParameters; i++) {
+            if (i > 0) sb.append(',');
+            sb.append('?');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Read the label of the current row, only chosen by the user for the custom events
+     * @return label of the event, or <code>null</code>
+     */
+    private static String readLabel(Cursor c) {
+        if (c.getInt(COLUMN_TYPE) != ContactsContract.CommonDataKinds.Event.TYPE_CUSTOM) return null;
+        final String label = c.getString(COLUMN_LABEL);
+        return TextUtils.isEmpty(label) ? null : label;
+    }
+
+    /**
+     * Read the birthday date of the current row
+     * @return packed date, or {@link BirthdayDateParser#INVALID}
+     */
+    private int readDate(Cursor c) {
+        c.copyStringToBuffer(COLUMN_START_DATE, dateBuffer);
+        if (dateChars.array() != dateBuffer.data) {
+            // The buffer has been enlarged to hold a longer value
+            dateChars = CharBuffer.wrap(dateBuffer.data);
         }
+        dateChars.clear();
+        dateChars.limit(dateBuffer.sizeCopied);
+        return eventReader.parseDate(dateChars);
+    }
 
-        return null;
+    /**
+     * Log the dates that could not be parsed and the duplicate events of the last pass
+     */
+    private void logEventReader() {
+        if (eventReader.getParseFailures() > 0) {
+            Log.w(TAG, eventReader.getParseFailures() + " birthday date(s) could not be parsed");
+        }
+        if (eventReader.getDuplicates() > 0) {
+            Log.d(TAG, eventReader.getDuplicates() + " duplicate event(s) ignored");
+        }
     }
 
 }
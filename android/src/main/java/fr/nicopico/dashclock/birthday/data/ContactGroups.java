@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+/**
+ * Contact groups, with the number of contacts having a birthday in each of them
+ *
+ * User: Nicolas PICON
+ * Date: 18/10/26 - 00:20
+ */
+public final class ContactGroups {
+
+    private final String[] ids;
+    private final String[] titles;
+    private final int[] birthdayCounts;
+
+    ContactGroups(String[] ids, String[] titles, int[] birthdayCounts) {
+        this.ids = ids;
+        this.titles = titles;
+        this.birthdayCounts = birthdayCounts;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public String getId(int index) {
+        return ids[index];
+    }
+
+    public String getTitle(int index) {
+        return titles[index];
+    }
+
+    /**
+     * @return number of contacts with a birthday in the group
+     */
+    public int getBirthdayCount(int index) {
+        return birthdayCounts[index];
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Debug mode dump of the birthday cursor, written row by row to a gzip file in the application cache.
+ * <p>
+ * Writing errors are logged and stop the dump, without interrupting the birthday retrieval.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 23:20
+ */
+public class DebugDump {
+
+    private static final String TAG = DebugDump.class.getSimpleName();
+    private static final String FILE_NAME = "birthdays-dump.csv.gz";
+
+    private final int nbColumns;
+    private Writer writer;
+
+    /**
+     * @return file of the last dump
+     */
+    public static File getFile(Context context) {
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Start a new dump, replacing the previous one
+     * @param nbColumns number of cursor columns to dump
+     */
+    DebugDump(Context context, Cursor cursor, int nbColumns) {
+        this.nbColumns = nbColumns;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(getFile(context))), "UTF-8"
+            ));
+
+            String[] columnNames = cursor.getColumnNames();
+            for (int i = 0; i < nbColumns; i++) {
+                writer.write(columnNames[i]);
+                writer.write(';');
+            }
+            writer.write("is_valid\n");
+        }
+        catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Dump the current row of the cursor
+     */
+    void writeRow(Cursor cursor, boolean isValid) {
+        if (writer == null) return;
+        try {
+            for (int i = 0; i < nbColumns; i++) {
+                writer.write(String.valueOf(cursor.getString(i)));
+                writer.write(';');
+            }
+            writer.write(String.valueOf(isValid));
+            writer.write('\n');
+        }
+        catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Finish the dump
+     * @return <code>true</code> if the dump has been written entirely
+     */
+    boolean close() {
+        if (writer == null) return false;
+        try {
+            writer.close();
+            writer = null;
+            return true;
+        }
+        catch (IOException e) {
+            fail(e);
+            return false;
+        }
+    }
+
+    private void fail(IOException e) {
+        Log.e(TAG, "Unable to write the debug dump", e);
+        if (writer != null) {
+            try {
+                writer.close();
+            }
+            catch (IOException ignored) {
+                // Already failing
+            }
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.nicopico.dashclock.birthday.benchmark;
+
+import fr.nicopico.dashclock.birthday.data.BirthdayFormatter;
+import fr.nicopico.dashclock.birthday.data.BirthdayStore;
+
+/**
+ * Format the texts as <code>BirthdayService</code> does, with the english templates.
+ * Android resources are not available on the JVM: the templates are copied from <code>strings.xml</code>.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 22:05
+ */
+public final class BodyFormatter extends BirthdayFormatter {
+
+    private static final String AGE_ONE_FORMAT = "%1$s year old";
+    private static final String AGE_OTHER_FORMAT = "%1$s years old";
+    private static final String ANNIVERSARY_FORMAT = "%1$s-year anniversary";
+
+    public BodyFormatter() {
+        super("today!", "tomorrow", "in %1$d days");
+    }
+
+    @Override
+    protected String getTitleFormat(int kind) {
+        switch (kind) {
+            case BirthdayStore.KIND_ANNIVERSARY:
+                return "%1$s's anniversary";
+            case BirthdayStore.KIND_OTHER:
+                return "%1$s's event";
+            default:
+                return "%1$s's birthday";
+        }
+    }
+
+    @Override
+    protected String getEventFormat(int kind) {
+        switch (kind) {
+            case BirthdayStore.KIND_ANNIVERSARY:
+                return "anniversary";
+            case BirthdayStore.KIND_OTHER:
+                return "event";
+            default:
+                return "";
+        }
+    }
+
+    @Override
+    protected String getYearsFormat(int kind, int years) {
+        switch (kind) {
+            case BirthdayStore.KIND_ANNIVERSARY:
+                return ANNIVERSARY_FORMAT;
+            case BirthdayStore.KIND_OTHER:
+                return "event";
+            default:
+                return years == 1 ? AGE_ONE_FORMAT : AGE_OTHER_FORMAT;
+        }
+    }
+}
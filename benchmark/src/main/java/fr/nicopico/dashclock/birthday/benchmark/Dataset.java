@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.benchmark;
+
+import fr.nicopico.dashclock.birthday.data.BirthdayDateParser;
+import fr.nicopico.dashclock.birthday.data.BirthdayStore;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic address book, generated with a fixed seed so that every run uses the same contacts.
+ * <p>
+ * Birthday dates mix the formats written by the usual sync adapters:
+ * <ul>
+ *     <li>55% <code>yyyy-MM-dd</code></li>
+ *     <li>20% <code>--MM-dd</code>, 5% <code>--MMdd</code></li>
+ *     <li>8% <code>yyyyMMdd</code></li>
+ *     <li>7% <code>yyyy-MM-ddT00:00:00.000Z</code></li>
+ *     <li>4% <code>dd.MM.yyyy</code></li>
+ *     <li>1% invalid values</li>
+ * </ul>
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 21:10
+ */
+public final class Dataset {
+
+    private static final String[] FIRST_NAMES = {
+            "Alice", "Bruno", "Camille", "David", "Emma", "François", "Gabriel", "Hélène", "Inès", "Jules",
+            "Karim", "Léa", "Manon", "Nicolas", "Olivia", "Pierre", "Quentin", "Rose", "Sarah", "Thomas"
+    };
+    private static final String[] LAST_NAMES = {
+            "Martin", "Bernard", "Dubois", "Thomas", "Robert", "Richard", "Petit", "Durand", "Leroy", "Moreau",
+            "Simon", "Laurent", "Lefebvre", "Michel", "Garcia", "David", "Bertrand", "Roux", "Vincent", "Fournier",
+            "Morel", "Girard", "André", "Lefèvre", "Mercier", "Dupont", "Lambert", "Bonnet", "François", "Martinez"
+    };
+    private static final int[] DAYS_IN_MONTH = { 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    public final int size;
+    public final long[] contactIds;
+    public final String[] lookupKeys;
+    public final String[] displayNames;
+    /** Birthday dates, as written in the contacts provider */
+    public final String[] rawDates;
+
+    public Dataset(int size) {
+        this.size = size;
+        contactIds = new long[size];
+        lookupKeys = new String[size];
+        displayNames = new String[size];
+        rawDates = new String[size];
+
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            contactIds[i] = i + 1;
+            lookupKeys[i] = "0r" + (i + 1) + "-" + Long.toHexString(random.nextLong());
+            displayNames[i] = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + ' '
+                    + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            rawDates[i] = randomDate(random);
+        }
+    }
+
+    /**
+     * @return store of the valid birthdays, as built by the retriever
+     */
+    public BirthdayStore buildStore() {
+        BirthdayStore.Builder builder = new BirthdayStore.Builder(size);
+        for (int i = 0; i < size; i++) {
+            int date = BirthdayDateParser.parse(rawDates[i]);
+            if (date != BirthdayDateParser.INVALID) {
+                builder.add(contactIds[i], lookupKeys[i], displayNames[i], date);
+            }
+        }
+        return builder.build();
+    }
+
+    private static String randomDate(Random random) {
+        int year = 1940 + random.nextInt(75);
+        int month = 1 + random.nextInt(12);
+        int day = 1 + random.nextInt(DAYS_IN_MONTH[month - 1]);
+        if (month == 2 && day == 29 && year % 4 != 0) year -= year % 4;
+
+        int format = random.nextInt(100);
+        if (format < 55) return String.format(Locale.US, "%04d-%02d-%02d", year, month, day);
+        if (format < 75) return String.format(Locale.US, "--%02d-%02d", month, day);
+        if (format < 80) return String.format(Locale.US, "--%02d%02d", month, day);
+        if (format < 88) return String.format(Locale.US, "%04d%02d%02d", year, month, day);
+        if (format < 95) return String.format(Locale.US, "%04d-%02d-%02dT00:00:00.000Z", year, month, day);
+        if (format < 99) return String.format(Locale.US, "%02d.%02d.%04d", day, month, year);
+        return "unknown";
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.nicopico.dashclock.birthday.benchmark;
+
+import fr.nicopico.dashclock.birthday.data.BirthdayDateParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the birthday dates of the whole address book, as done while scanning the contacts.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 21:25
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DateParserBenchmark {
+
+    @Param({ "100", "5000", "50000" })
+    public int contacts;
+
+    private String[] rawDates;
+
+    @Setup
+    public void setUp() {
+        rawDates = new Dataset(contacts).rawDates;
+    }
+
+    @Benchmark
+    public int parse() {
+        int result = 0;
+        for (String rawDate : rawDates) {
+            result += BirthdayDateParser.parse(rawDate);
+        }
+        return result;
+    }
+}
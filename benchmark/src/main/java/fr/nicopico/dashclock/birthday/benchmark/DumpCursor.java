@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.nicopico.dashclock.birthday.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Stand-in for the birthday cursor, loaded from a debug mode dump.
+ * <p>
+ * The dump is the semicolon-separated text sent by the <code>debugMode</code> flavor: a header with
+ * the column names, then one line per birthday row. Lines that do not match the header,
+ * like the quoting added by some e-mail clients, are ignored.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 22:10
+ */
+public final class DumpCursor {
+
+    private static final char SEPARATOR = ';';
+
+    private final String[] columnNames;
+    private final List<String[]> rows;
+    private final int ignoredLines;
+    private int position = -1;
+
+    private DumpCursor(String[] columnNames, List<String[]> rows, int ignoredLines) {
+        this.columnNames = columnNames;
+        this.rows = rows;
+        this.ignoredLines = ignoredLines;
+    }
+
+    public static DumpCursor read(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        String[] columnNames = null;
+        List<String[]> rows = new ArrayList<String[]>();
+        int ignoredLines = 0;
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            String[] values = split(line);
+            if (columnNames == null) {
+                if (values.length > 1) {
+                    columnNames = values;
+                }
+                else {
+                    ignoredLines++;
+                }
+            }
+            else if (values.length == columnNames.length) {
+                rows.add(values);
+            }
+            else {
+                ignoredLines++;
+            }
+        }
+
+        if (columnNames == null) {
+            throw new IOException("No header found in the dump");
+        }
+        return new DumpCursor(columnNames, rows, ignoredLines);
+    }
+
+    public String[] getColumnNames() {
+        return Arrays.copyOf(columnNames, columnNames.length);
+    }
+
+    /**
+     * @return index of the column, or -1
+     */
+    public int getColumnIndex(String columnName) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equals(columnName)) return i;
+        }
+        return -1;
+    }
+
+    public int getCount() {
+        return rows.size();
+    }
+
+    /**
+     * @return number of lines that could not be read as a row
+     */
+    public int getIgnoredLines() {
+        return ignoredLines;
+    }
+
+    /**
+     * Sort the rows on numeric columns, rows with equal values keep their order
+     * @param columns indexes of the sort columns
+     * @param descending sort order of each column
+     */
+    public void sort(final int[] columns, final boolean[] descending) {
+        Collections.sort(rows, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] row1, String[] row2) {
+                for (int i = 0; i < columns.length; i++) {
+                    long value1 = parseLong(row1[columns[i]]);
+                    long value2 = parseLong(row2[columns[i]]);
+                    if (value1 != value2) {
+                        return (value1 < value2) != descending[i] ? -1 : 1;
+                    }
+                }
+                return 0;
+            }
+        });
+        position = -1;
+    }
+
+    public boolean moveToNext() {
+        if (position < rows.size()) position++;
+        return position < rows.size();
+    }
+
+    /**
+     * Move back before the first row, where a new cursor starts: the next {@link #moveToNext()} reads the first row
+     */
+    public void reset() {
+        position = -1;
+    }
+
+    /**
+     * @return value of the column, <code>null</code> if the dump holds a <code>null</code> value
+     */
+    public String getString(int column) {
+        String value = rows.get(position)[column];
+        return "null".equals(value) ? null : value;
+    }
+
+    public long getLong(int column) {
+        return parseLong(rows.get(position)[column]);
+    }
+
+    /**
+     * @return value of a number, 0 if it is <code>null</code> or invalid
+     */
+    private static long parseLong(String value) {
+        try {
+            return value != null && !"null".equals(value) ? Long.parseLong(value) : 0;
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String[] split(String line) {
+        // A line ending with a separator has an empty last column
+        List<String> values = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == SEPARATOR) {
+                values.add(line.substring(start, i));
+                start = i + 1;
+            }
+        }
+        values.add(line.substring(start));
+        return values.toArray(new String[values.size()]);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.nicopico.dashclock.birthday.benchmark;
+
+import fr.nicopico.dashclock.birthday.data.BirthdayCalendar;
+import fr.nicopico.dashclock.birthday.data.BirthdayStore;
+import fr.nicopico.dashclock.birthday.data.EpochDays;
+import fr.nicopico.dashclock.birthday.data.GroupMemberships;
+import fr.nicopico.dashclock.birthday.data.UpcomingBirthdays;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of the expanded body, as done by <code>BirthdayService</code>, see {@link BodyFormatter}.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 21:40
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FormatBenchmark {
+
+    @Param({ "100", "5000", "50000" })
+    public int contacts;
+
+    private final int today = EpochDays.fromDate(2015, 12, 20);
+    private final UpcomingBirthdays upcoming = new UpcomingBirthdays(50);
+    private final BodyFormatter formatter = new BodyFormatter();
+
+    @Setup
+    public void setUp() {
+        BirthdayStore store = new Dataset(contacts).buildStore();
+        BirthdayCalendar calendar = new BirthdayCalendar(store, new GroupMemberships(store));
+        calendar.getUpcomingBirthdays(today, 30, null, upcoming);
+    }
+
+    @Benchmark
+    public String body() {
+        formatter.format(today, upcoming);
+        return formatter.getExpandedBody();
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.nicopico.dashclock.birthday.benchmark;
+
+import fr.nicopico.dashclock.birthday.data.BirthdayCalendar;
+import fr.nicopico.dashclock.birthday.data.BirthdayDateParser;
+import fr.nicopico.dashclock.birthday.data.BirthdayStore;
+import fr.nicopico.dashclock.birthday.data.EpochDays;
+import fr.nicopico.dashclock.birthday.data.GroupMemberships;
+import fr.nicopico.dashclock.birthday.data.EventReader;
+import fr.nicopico.dashclock.birthday.data.UpcomingBirthdays;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replay the retrieval of the birthdays off-device, from a debug mode dump or from a synthetic address book.
+ * <pre>
+ * Replay (DUMP_FILE | --synthetic NB_CONTACTS) [--today yyyy-MM-dd] [--days DAYS_LIMIT] [--runs NB_RUNS] [--body]
+ * </pre>
+ * Each run goes through the same steps as the extension (date parsing, store, calendar, upcoming birthdays,
+ * body formatting), and the timings of each phase are reported along with the parse failures.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 22:20
+ */
+public final class Replay {
+
+    // Columns written by BirthdayRetriever in debug mode
+    private static final String COLUMN_CONTACT_ID = "contact_id";
+    private static final String COLUMN_START_DATE = "data1";
+    private static final String COLUMN_LOOKUP_KEY = "lookup";
+    private static final String COLUMN_TYPE = "data2";
+    private static final String COLUMN_RAW_CONTACT_ID = "raw_contact_id";
+    private static final String COLUMN_IS_PRIMARY = "is_primary";
+    private static final String COLUMN_IS_SUPER_PRIMARY = "is_super_primary";
+    private static final String COLUMN_DISPLAY_NAME = "display_name";
+    private static final String COLUMN_IS_VALID = "is_valid";
+
+    // Event types of the contacts provider (ContactsContract.CommonDataKinds.Event)
+
+    private static final String[] PHASES = { "read", "store", "calendar", "upcoming", "format" };
+    private static final int MAX_LISTED_BIRTHDAYS = 50;
+    private static final int MAX_REPORTED_FAILURES = 10;
+
+    private final DumpCursor cursor;
+    private final int today;
+    private final int daysLimit;
+
+    private final int columnContactId;
+    private final int columnStartDate;
+    private final int columnLookupKey;
+    private final int columnType;
+    private final int columnDisplayName;
+    private final int columnIsValid;
+
+    // Results of the last run
+    private final EventReader eventReader = new EventReader();
+    private int validityChanges;
+    private final Map<String, Integer> failedValues = new LinkedHashMap<String, Integer>();
+    private BirthdayStore store;
+    private final UpcomingBirthdays upcoming = new UpcomingBirthdays(MAX_LISTED_BIRTHDAYS);
+    private final BodyFormatter formatter = new BodyFormatter();
+    private String body;
+
+    Replay(DumpCursor cursor, int today, int daysLimit) {
+        this.cursor = cursor;
+        this.today = today;
+        this.daysLimit = daysLimit;
+
+        columnContactId = cursor.getColumnIndex(COLUMN_CONTACT_ID);
+        columnStartDate = cursor.getColumnIndex(COLUMN_START_DATE);
+        columnLookupKey = cursor.getColumnIndex(COLUMN_LOOKUP_KEY);
+        columnType = cursor.getColumnIndex(COLUMN_TYPE);
+        columnDisplayName = cursor.getColumnIndex(COLUMN_DISPLAY_NAME);
+        columnIsValid = cursor.getColumnIndex(COLUMN_IS_VALID);
+        if (columnContactId == -1 || columnStartDate == -1) {
+            throw new IllegalArgumentException("The dump must have the columns "
+                    + COLUMN_CONTACT_ID + " and " + COLUMN_START_DATE + ", found "
+                    + Arrays.toString(cursor.getColumnNames()));
+        }
+
+        // Same order as BirthdayRetriever.EVENTS_SORT_ORDER, so that the same duplicate wins
+        final int columnRawContactId = cursor.getColumnIndex(COLUMN_RAW_CONTACT_ID);
+        final int columnIsPrimary = cursor.getColumnIndex(COLUMN_IS_PRIMARY);
+        final int columnIsSuperPrimary = cursor.getColumnIndex(COLUMN_IS_SUPER_PRIMARY);
+        if (columnRawContactId != -1 && columnIsPrimary != -1 && columnIsSuperPrimary != -1) {
+            cursor.sort(
+                    new int[] { columnIsSuperPrimary, columnIsPrimary, columnRawContactId },
+                    new boolean[] { true, true, false }
+            );
+        }
+    }
+
+    /**
+     * Run the whole pipeline once
+     * @param timings receive the duration of each phase, in nanoseconds
+     */
+    void run(long[] timings) {
+        long start = System.nanoTime();
+        BirthdayStore.Builder builder = new BirthdayStore.Builder(cursor.getCount());
+        readBirthdays(builder);
+        long end = System.nanoTime();
+        timings[0] = end - start;
+
+        start = end;
+        store = builder.build();
+        end = System.nanoTime();
+        timings[1] = end - start;
+
+        start = end;
+        BirthdayCalendar calendar = new BirthdayCalendar(store, new GroupMemberships(store));
+        end = System.nanoTime();
+        timings[2] = end - start;
+
+        start = end;
+        upcoming.clear();
+        calendar.getUpcomingBirthdays(today, daysLimit, null, upcoming);
+        end = System.nanoTime();
+        timings[3] = end - start;
+
+        start = end;
+        formatter.format(today, upcoming);
+        body = formatter.getExpandedBody();
+        end = System.nanoTime();
+        timings[4] = end - start;
+    }
+
+    /**
+     * Same steps as <code>BirthdayRetriever.readBirthdays()</code>, with the same {@link EventReader}
+     */
+    private void readBirthdays(BirthdayStore.Builder builder) {
+        eventReader.startPass();
+        validityChanges = 0;
+        failedValues.clear();
+
+        // Each run reads the rows again, from before the first one
+        cursor.reset();
+        while (cursor.moveToNext()) {
+            final long contactId = cursor.getLong(columnContactId);
+            final int kind = readKind();
+            if (eventReader.isDuplicate(contactId, kind)) {
+                // Written as invalid in the dump
+                if (columnIsValid != -1 && Boolean.parseBoolean(cursor.getString(columnIsValid))) {
+                    validityChanges++;
+                }
+                continue;
+            }
+
+            String rawDate = cursor.getString(columnStartDate);
+            final int parseFailures = eventReader.getParseFailures();
+            int date = eventReader.parseDate(rawDate);
+            if (eventReader.getParseFailures() != parseFailures) {
+                Integer count = failedValues.get(rawDate);
+                failedValues.put(rawDate, count != null ? count + 1 : 1);
+            }
+
+            // Display names are not included in the dumps
+            String displayName = columnDisplayName != -1
+                    ? cursor.getString(columnDisplayName)
+                    : "Contact " + contactId;
+            boolean isValid = eventReader.accept(contactId, kind, date, displayName != null);
+
+            if (columnIsValid != -1 && isValid != Boolean.parseBoolean(cursor.getString(columnIsValid))) {
+                validityChanges++;
+            }
+
+            if (isValid) {
+                builder.add(
+                        contactId,
+                        columnLookupKey != -1 ? cursor.getString(columnLookupKey) : null,
+                        displayName,
+                        date,
+                        kind
+                );
+            }
+        }
+    }
+
+    /**
+     * Dumps without the type column only hold birthdays
+     */
+    private int readKind() {
+        if (columnType == -1) return BirthdayStore.KIND_BIRTHDAY;
+        return EventReader.getKind((int) cursor.getLong(columnType));
+    }
+
+    private void printReport(long[][] timings, boolean printBody) {
+        System.out.println(String.format(Locale.US, "Rows: %d (%d ignored lines), birthdays: %d, upcoming: %d",
+                cursor.getCount(), cursor.getIgnoredLines(), store.size(), upcoming.getCount()));
+
+        System.out.println("Duplicate events: " + eventReader.getDuplicates());
+        System.out.println("Parse failures: " + eventReader.getParseFailures());
+        int reported = 0;
+        for (Map.Entry<String, Integer> entry : failedValues.entrySet()) {
+            if (reported++ == MAX_REPORTED_FAILURES) {
+                System.out.println("  ...");
+                break;
+            }
+            System.out.println(String.format(Locale.US, "  \"%s\" x%d", entry.getKey(), entry.getValue()));
+        }
+        if (columnIsValid != -1) {
+            System.out.println("Rows whose validity differs from the dump: " + validityChanges);
+        }
+
+        final int nbRuns = timings.length;
+        System.out.println(String.format(Locale.US, "Timings over %d run(s), in ms:", nbRuns));
+        System.out.println(String.format(Locale.US, "  %-10s %10s %10s %10s %10s", "phase", "first", "min", "p50", "max"));
+        long[] values = new long[nbRuns];
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            for (int run = 0; run < nbRuns; run++) {
+                values[run] = timings[run][phase];
+            }
+            long first = values[0];
+            Arrays.sort(values);
+            System.out.println(String.format(Locale.US, "  %-10s %10.3f %10.3f %10.3f %10.3f", PHASES[phase],
+                    first / 1e6, values[0] / 1e6, values[nbRuns / 2] / 1e6, values[nbRuns - 1] / 1e6));
+        }
+
+        if (printBody) {
+            System.out.println();
+            System.out.println(body);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String dumpFile = null;
+        int syntheticContacts = 0;
+        int today = EpochDays.fromMillis(System.currentTimeMillis(), TimeZone.getDefault());
+        int daysLimit = 7;
+        int nbRuns = 10;
+        boolean printBody = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("--synthetic".equals(args[i])) {
+                    syntheticContacts = Integer.parseInt(args[++i]);
+                }
+                else if ("--today".equals(args[i])) {
+                    int date = BirthdayDateParser.parse(args[++i]);
+                    if (BirthdayDateParser.getYear(date) == BirthdayDateParser.UNKNOWN_YEAR) {
+                        throw new IllegalArgumentException("Invalid date " + args[i]);
+                    }
+                    today = EpochDays.fromDate(BirthdayDateParser.getYear(date),
+                            BirthdayDateParser.getMonth(date), BirthdayDateParser.getDay(date));
+                }
+                else if ("--days".equals(args[i])) {
+                    daysLimit = Integer.parseInt(args[++i]);
+                }
+                else if ("--runs".equals(args[i])) {
+                    nbRuns = Math.max(1, Integer.parseInt(args[++i]));
+                }
+                else if ("--body".equals(args[i])) {
+                    printBody = true;
+                }
+                else {
+                    dumpFile = args[i];
+                }
+            }
+            if ((dumpFile == null) == (syntheticContacts == 0)) {
+                throw new IllegalArgumentException("A dump file or a number of synthetic contacts is required");
+            }
+        }
+        catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: Replay (DUMP_FILE | --synthetic NB_CONTACTS) "
+                    + "[--today yyyy-MM-dd] [--days DAYS_LIMIT] [--runs NB_RUNS] [--body]");
+            System.exit(1);
+            return;
+        }
+
+        Reader reader;
+        if (dumpFile == null) {
+            reader = new StringReader(syntheticDump(new Dataset(syntheticContacts)));
+        }
+        else {
+            // Dumps are sent gzipped by the debug mode
+            InputStream input = new FileInputStream(dumpFile);
+            if (dumpFile.endsWith(".gz")) {
+                input = new GZIPInputStream(input);
+            }
+            reader = new InputStreamReader(input, "UTF-8");
+        }
+        DumpCursor cursor;
+        try {
+            cursor = DumpCursor.read(reader);
+        }
+        finally {
+            reader.close();
+        }
+
+        Replay replay = new Replay(cursor, today, daysLimit);
+        long[][] timings = new long[nbRuns][PHASES.length];
+        for (int run = 0; run < nbRuns; run++) {
+            replay.run(timings[run]);
+        }
+        replay.printReport(timings, printBody);
+    }
+
+    /**
+     * @return dump of the dataset, in the format written by the debug mode
+     */
+    static String syntheticDump(Dataset dataset) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(COLUMN_CONTACT_ID).append(';')
+                .append(COLUMN_START_DATE).append(';')
+                .append(COLUMN_LOOKUP_KEY).append(';')
+                .append(COLUMN_TYPE).append(';')
+                .append(COLUMN_DISPLAY_NAME).append(';')
+                .append(COLUMN_IS_VALID).append('\n');
+        for (int i = 0; i < dataset.size; i++) {
+            sb.append(dataset.contactIds[i]).append(';')
+                    .append(dataset.rawDates[i]).append(';')
+                    .append(dataset.lookupKeys[i]).append(';')
+                    .append(EventReader.TYPE_BIRTHDAY).append(';')
+                    .append(dataset.displayNames[i]).append(';')
+                    .append(BirthdayDateParser.parse(dataset.rawDates[i]) != BirthdayDateParser.INVALID)
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+}
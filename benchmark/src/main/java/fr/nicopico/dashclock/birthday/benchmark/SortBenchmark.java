@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.nicopico.dashclock.birthday.benchmark;
+
+import fr.nicopico.dashclock.birthday.data.BirthdayCalendar;
+import fr.nicopico.dashclock.birthday.data.BirthdayStore;
+import fr.nicopico.dashclock.birthday.data.GroupMemberships;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexing of the birthdays once they have been read:
+ * building the store (which ranks the display names) and sorting it into the calendar.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 21:30
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SortBenchmark {
+
+    @Param({ "100", "5000", "50000" })
+    public int contacts;
+
+    private Dataset dataset;
+    private BirthdayStore store;
+    private GroupMemberships memberships;
+
+    @Setup
+    public void setUp() {
+        dataset = new Dataset(contacts);
+        store = dataset.buildStore();
+        memberships = new GroupMemberships(store);
+    }
+
+    @Benchmark
+    public BirthdayStore buildStore() {
+        return dataset.buildStore();
+    }
+
+    @Benchmark
+    public BirthdayCalendar buildCalendar() {
+        return new BirthdayCalendar(store, memberships);
+    }
+}
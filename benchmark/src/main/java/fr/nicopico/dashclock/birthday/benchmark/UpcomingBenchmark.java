@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.nicopico.dashclock.birthday.benchmark;
+
+import fr.nicopico.dashclock.birthday.data.BirthdayCalendar;
+import fr.nicopico.dashclock.birthday.data.BirthdayStore;
+import fr.nicopico.dashclock.birthday.data.EpochDays;
+import fr.nicopico.dashclock.birthday.data.GroupMemberships;
+import fr.nicopico.dashclock.birthday.data.UpcomingBirthdays;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selection of the upcoming birthdays, as done by <code>BirthdayService</code> on each update:
+ * slice of the year schedule and top-K selection.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 21:35
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UpcomingBenchmark {
+
+    @Param({ "100", "5000", "50000" })
+    public int contacts;
+
+    @Param({ "7", "30" })
+    public int daysLimit;
+
+    private final int today = EpochDays.fromDate(2015, 12, 20);
+    private BirthdayStore store;
+    private BirthdayCalendar calendar;
+    private final UpcomingBirthdays upcoming = new UpcomingBirthdays(50);
+
+    @Setup
+    public void setUp() {
+        store = new Dataset(contacts).buildStore();
+        calendar = new BirthdayCalendar(store, new GroupMemberships(store));
+    }
+
+    /**
+     * Days until the next birthday of every contact
+     */
+    @Benchmark
+    public int daysUntil() {
+        int result = 0;
+        for (int row = 0, size = store.size(); row < size; row++) {
+            result += EpochDays.daysUntil(today, store.getDate(row));
+        }
+        return result;
+    }
+
+    /**
+     * Upcoming birthdays, as retrieved from the calendar
+     */
+    @Benchmark
+    public UpcomingBirthdays upcomingBirthdays() {
+        upcoming.clear();
+        calendar.getUpcomingBirthdays(today, daysLimit, null, upcoming);
+        return upcoming;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * Birthdays indexed by day of year.
+ * <p>
+ * Each of the 366 slots holds the birthdays of a single day, February 29th included, sorted by name.
+ * <p>
+ * The slots are laid out once per year in a schedule of the current and the next years, indexed by
+ * day: on non-leap years, birthdays on February 29th are already merged with March 1st ones.
+ * Looking for the birthdays of the next N days is then a slice of the schedule, already sorted by
+ * date then by name, whose cost only depends on the number of birthdays found.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 11:36
+ */
+public class BirthdayCalendar {
+
+    private static final int NB_SLOTS = 366;
+    private static final int[] DAYS_IN_MONTH = { 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+    private static final int[] FIRST_SLOT_OF_MONTH = new int[12];
+
+    static {
+        int slot = 0;
+        for (int month = 0; month < 12; month++) {
+            FIRST_SLOT_OF_MONTH[month] = slot;
+            slot += DAYS_IN_MONTH[month];
+        }
+    }
+
+    private static final int FEB_29_SLOT = slotOf(2, 29);
+    private static final int MARCH_1_SLOT = slotOf(3, 1);
+    /** A birthday always happens in the next 365 days */
+    private static final int MAX_DAYS = 365;
+
+    private final BirthdayStore store;
+    private final GroupMemberships memberships;
+    /** Rows of the store, sorted by slot, then by display name */
+    private final int[] rows;
+    /** Rows of slot <code>i</code> are stored between <code>slotStart[i]</code> (inclusive)
+     * and <code>slotStart[i + 1]</code> (exclusive) */
+    private final int[] slotStart = new int[NB_SLOTS + 1];
+    /** Schedule of the current year, replaced on the first query of another year */
+    private volatile Schedule schedule;
+
+    public BirthdayCalendar(BirthdayStore store, GroupMemberships memberships) {
+        this.store = store;
+        this.memberships = memberships;
+        final int size = store.size();
+
+        // Rows are sorted on a 2-digit key (slot, name rank) with a LSD radix sort.
+        // 1st pass: counting sort on the name rank
+        int[] counts = new int[size + 1];
+        for (int row = 0; row < size; row++) {
+            counts[store.getNameRank(row) + 1]++;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            counts[rank + 1] += counts[rank];
+        }
+        int[] rowsByName = new int[size];
+        for (int row = 0; row < size; row++) {
+            rowsByName[counts[store.getNameRank(row)]++] = row;
+        }
+
+        // 2nd pass: stable counting sort on the slot
+        int[] slots = new int[size];
+        for (int row = 0; row < size; row++) {
+            slots[row] = slotOf(store.getMonth(row), store.getDay(row));
+            slotStart[slots[row] + 1]++;
+        }
+        for (int slot = 0; slot < NB_SLOTS; slot++) {
+            slotStart[slot + 1] += slotStart[slot];
+        }
+        rows = new int[size];
+        int[] position = Arrays.copyOf(slotStart, NB_SLOTS);
+        for (int i = 0; i < size; i++) {
+            int row = rowsByName[i];
+            rows[position[slots[row]]++] = row;
+        }
+    }
+
+    /**
+     * @return birthdays of the calendar
+     */
+    public BirthdayStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return contact groups of the birthdays
+     */
+    public GroupMemberships getMemberships() {
+        return memberships;
+    }
+
+    /**
+     * @param contactGroupIds ids of the selected contact groups, all the contacts if empty
+     * @param kindMask selected kinds of events, see {@link BirthdayStore#kindMask(int)}
+     * @return rows of the selected events, or <code>null</code> if all the rows are selected
+     */
+    public BitSet select(Collection<String> contactGroupIds, int kindMask) {
+        final BitSet selectedRows = contactGroupIds.isEmpty() ? null : memberships.select(contactGroupIds);
+        final BitSet kindRows = store.selectKinds(kindMask);
+        if (selectedRows == null) return kindRows;
+        if (kindRows != null) selectedRows.and(kindRows);
+        return selectedRows;
+    }
+
+    /**
+     * @return number of birthdays in the calendar
+     */
+    public int size() {
+        return rows.length;
+    }
+
+    /**
+     * Offer the birthdays happening in the next days to <code>upcoming</code>, then sort it
+     * @param today first day to look for, as an epoch day (see {@link EpochDays})
+     * @param daysLimit number of days to look for after <code>today</code>
+     * @param filter only retrieve these rows of the store, all rows if <code>null</code>
+     * @param upcoming receive the upcoming birthdays, must be cleared
+     */
+    public void getUpcomingBirthdays(int today, int daysLimit, BitSet filter, UpcomingBirthdays upcoming) {
+        final Schedule schedule = getSchedule(today);
+        final int first = today - schedule.firstDay;
+        final int maxDays = Math.min(daysLimit, MAX_DAYS);
+
+        // Birthdays are offered in order: the first ones are kept, the next ones are only counted
+        for (int days = 0; days <= maxDays; days++) {
+            for (int i = schedule.dayStart[first + days], end = schedule.dayStart[first + days + 1]; i < end; i++) {
+                final int row = schedule.entries[i];
+                if ((filter != null && !filter.get(row)) || (days == MAX_DAYS && !isLastDay(today, row))) {
+                    continue;
+                }
+                if (upcoming.isCandidate(days)) {
+                    upcoming.offer(
+                            days,
+                            store.getContactId(row),
+                            store.getLookupKey(row),
+                            store.getDisplayName(row),
+                            BirthdayDateParser.pack(store.getYear(row), store.getMonth(row), store.getDay(row)),
+                            store.getKind(row),
+                            store.getLabel(row)
+                    );
+                }
+                else {
+                    upcoming.skip();
+                }
+            }
+        }
+        upcoming.sort();
+    }
+
+    /**
+     * A birthday found {@link #MAX_DAYS} days after <code>today</code> may also be today,
+     * when no February 29th is in between
+     */
+    private boolean isLastDay(int today, int row) {
+        return EpochDays.daysUntil(today, store.getDate(row)) == MAX_DAYS;
+    }
+
+    private Schedule getSchedule(int today) {
+        Schedule current = schedule;
+        if (current == null || today < current.firstDay || today >= current.nextYearFirstDay) {
+            current = new Schedule(EpochDays.getYear(today));
+            schedule = current;
+        }
+        return current;
+    }
+
+    /**
+     * Rows of the store for each day of a year and of the next one
+     */
+    private final class Schedule {
+        /** Epoch day of January 1st */
+        final int firstDay;
+        final int nextYearFirstDay;
+        /** Rows of the store, sorted by day, then by display name */
+        final int[] entries;
+        /** Rows of day <code>i</code> are stored between <code>dayStart[i]</code> (inclusive)
+         * and <code>dayStart[i + 1]</code> (exclusive) */
+        final int[] dayStart;
+
+        Schedule(int year) {
+            firstDay = EpochDays.fromDate(year, 1, 1);
+            nextYearFirstDay = EpochDays.fromDate(year + 1, 1, 1);
+            entries = new int[2 * rows.length];
+            dayStart = new int[EpochDays.fromDate(year + 2, 1, 1) - firstDay + 1];
+
+            int count = 0;
+            int day = 0;
+            for (int y = year; y <= year + 1; y++) {
+                final boolean leapYear = EpochDays.isLeapYear(y);
+                for (int month = 1; month <= 12; month++) {
+                    for (int d = 1, nbDays = daysInMonth(y, month); d <= nbDays; d++) {
+                        dayStart[day++] = count;
+                        if (month == 3 && d == 1 && !leapYear) {
+                            // Birthdays on February 29th are celebrated on March 1st on non-leap years
+                            count = mergeSlots(FEB_29_SLOT, MARCH_1_SLOT, entries, count);
+                        }
+                        else {
+                            count = addSlot(slotOf(month, d), entries, count);
+                        }
+                    }
+                }
+            }
+            dayStart[day] = count;
+        }
+    }
+
+    private int addSlot(int slot, int[] result, int count) {
+        final int start = slotStart[slot];
+        final int end = slotStart[slot + 1];
+        System.arraycopy(rows, start, result, count, end - start);
+        return count + end - start;
+    }
+
+    /**
+     * Add the rows of 2 slots, keeping them sorted by name
+     */
+    private int mergeSlots(int slot1, int slot2, int[] result, int count) {
+        int i = slotStart[slot1], end1 = slotStart[slot1 + 1];
+        int j = slotStart[slot2], end2 = slotStart[slot2 + 1];
+        while (i < end1 || j < end2) {
+            if (j == end2 || (i < end1 && store.getNameRank(rows[i]) <= store.getNameRank(rows[j]))) {
+                result[count++] = rows[i++];
+            }
+            else {
+                result[count++] = rows[j++];
+            }
+        }
+        return count;
+    }
+
+    private static int slotOf(int month, int day) {
+        return FIRST_SLOT_OF_MONTH[month - 1] + day - 1;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        return month == 2 && !EpochDays.isLeapYear(year) ? 28 : DAYS_IN_MONTH[month - 1];
+    }
+}
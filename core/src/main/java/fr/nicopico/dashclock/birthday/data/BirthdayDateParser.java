@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+/**
+ * Parse the birthday dates written by the contact sync adapters, without allocating any object.
+ * <p>
+ * Supported formats:
+ * <ul>
+ *     <li><code>yyyy-MM-dd</code></li>
+ *     <li><code>--MM-dd</code> and <code>--MMdd</code> (unknown year)</li>
+ *     <li><code>yyyyMMdd</code></li>
+ *     <li>ISO timestamps, like <code>yyyy-MM-ddTHH:mm:ss.SSSZ</code> (the time part is ignored)</li>
+ *     <li><code>dd.MM.yyyy</code></li>
+ * </ul>
+ * Dates are returned packed in a single int, see {@link #getYear(int)}, {@link #getMonth(int)}
+ * and {@link #getDay(int)}.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 14:05
+ */
+public final class BirthdayDateParser {
+
+    /** Returned when the value cannot be parsed */
+    public static final int INVALID = 0;
+    /** Year of a packed date when the year is not known */
+    public static final int UNKNOWN_YEAR = 0;
+
+    private static final int DAY_BITS = 5;
+    private static final int MONTH_BITS = 4;
+    private static final int DAY_MASK = (1 << DAY_BITS) - 1;
+    private static final int MONTH_MASK = (1 << MONTH_BITS) - 1;
+
+    private static final int[] MAX_DAYS_IN_MONTH = { 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    private BirthdayDateParser() {
+    }
+
+    /**
+     * Parse a birthday date
+     * @param value date written by a sync adapter, can be <code>null</code>
+     * @return packed date, or {@link #INVALID}
+     */
+    public static int parse(CharSequence value) {
+        if (value == null) return INVALID;
+
+        final int length = value.length();
+        int i = 0;
+        while (i < length && Character.isWhitespace(value.charAt(i))) {
+            i++;
+        }
+
+        int year, month, day;
+        if (i + 1 < length && value.charAt(i) == '-' && value.charAt(i + 1) == '-') {
+            // --MM-dd or --MMdd
+            i += 2;
+            year = UNKNOWN_YEAR;
+            month = readNumber(value, i, 2);
+            i += 2;
+            if (i < length && value.charAt(i) == '-') i++;
+            day = readNumber(value, i, 2);
+            i += 2;
+        }
+        else if (i + 2 < length && value.charAt(i + 2) == '.') {
+            // dd.MM.yyyy
+            day = readNumber(value, i, 2);
+            i += 3;
+            month = readNumber(value, i, 2);
+            i += 2;
+            if (i >= length || value.charAt(i) != '.') return INVALID;
+            year = readNumber(value, i + 1, 4);
+            i += 5;
+        }
+        else {
+            // yyyy-MM-dd or yyyyMMdd
+            year = readNumber(value, i, 4);
+            i += 4;
+            if (i < length && value.charAt(i) == '-') {
+                month = readNumber(value, i + 1, 2);
+                i += 3;
+                if (i >= length || value.charAt(i) != '-') return INVALID;
+                day = readNumber(value, i + 1, 2);
+                i += 3;
+            }
+            else {
+                month = readNumber(value, i, 2);
+                day = readNumber(value, i + 2, 2);
+                i += 4;
+            }
+        }
+
+        // The date may be followed by a time part, but not by another digit
+        if (i < length && isDigit(value.charAt(i))) return INVALID;
+
+        return pack(year, month, day);
+    }
+
+    /**
+     * Build a packed date
+     * @param year year, or {@link #UNKNOWN_YEAR}
+     * @param month month of year (1-12)
+     * @param day day of month (1-31)
+     * @return packed date, or {@link #INVALID} if the date does not exist
+     */
+    public static int pack(int year, int month, int day) {
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > MAX_DAYS_IN_MONTH[month - 1]) {
+            return INVALID;
+        }
+        return (year << (MONTH_BITS + DAY_BITS)) | (month << DAY_BITS) | day;
+    }
+
+    /**
+     * @return year of a packed date, or {@link #UNKNOWN_YEAR}
+     */
+    public static int getYear(int packedDate) {
+        return packedDate >>> (MONTH_BITS + DAY_BITS);
+    }
+
+    /**
+     * @return month of year of a packed date (1-12)
+     */
+    public static int getMonth(int packedDate) {
+        return (packedDate >>> DAY_BITS) & MONTH_MASK;
+    }
+
+    /**
+     * @return day of month of a packed date (1-31)
+     */
+    public static int getDay(int packedDate) {
+        return packedDate & DAY_MASK;
+    }
+
+    /**
+     * Read a fixed-length positive number
+     * @return the number, or -1 if the characters are not all digits
+     */
+    private static int readNumber(CharSequence value, int start, int nbDigits) {
+        if (start + nbDigits > value.length()) return -1;
+
+        int result = 0;
+        for (int i = start, end = start + nbDigits; i < end; i++) {
+            char c = value.charAt(i);
+            if (!isDigit(c)) return -1;
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
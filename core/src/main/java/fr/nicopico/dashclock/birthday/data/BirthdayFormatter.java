@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+/**
+ * Render the status, the expanded title and the expanded body of the upcoming birthdays.
+ * <p>
+ * Each kind of event (birthday, anniversary, other events) has its own title and description.
+ * Custom events are described by their own label.
+ * <p>
+ * The templates are compiled once, and the texts are rendered in buffers reused between calls.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 23:55
+ */
+public abstract class BirthdayFormatter {
+
+    // Number of years whose template is kept once resolved
+    private static final int NB_CACHED_YEARS = 128;
+
+    private final MessageTemplate todayTemplate;
+    private final MessageTemplate tomorrowTemplate;
+    private final MessageTemplate daysTemplate;
+    private final MessageTemplate[] titleTemplates = new MessageTemplate[BirthdayStore.NB_KINDS];
+    private final MessageTemplate[] eventTemplates = new MessageTemplate[BirthdayStore.NB_KINDS];
+    private final MessageTemplate[][] yearsTemplates = new MessageTemplate[BirthdayStore.NB_KINDS][NB_CACHED_YEARS];
+
+    private final StringBuilder status = new StringBuilder();
+    private final StringBuilder expandedTitle = new StringBuilder();
+    private final StringBuilder expandedBody = new StringBuilder();
+
+    /**
+     * @param todayFormat when the event is today
+     * @param tomorrowFormat when the event is tomorrow
+     * @param daysFormat when the event is later, its argument is the number of days
+     */
+    protected BirthdayFormatter(String todayFormat, String tomorrowFormat, String daysFormat) {
+        todayTemplate = MessageTemplate.compile(todayFormat);
+        tomorrowTemplate = MessageTemplate.compile(tomorrowFormat);
+        daysTemplate = MessageTemplate.compile(daysFormat);
+    }
+
+    /**
+     * @param kind kind of the event, see {@link BirthdayStore#getKind(int)}
+     * @return format of the expanded title of the first event, its argument is the contact name
+     */
+    protected abstract String getTitleFormat(int kind);
+
+    /**
+     * @param kind kind of the event, see {@link BirthdayStore#getKind(int)}
+     * @return description of an event whose year is unknown, without argument. May be empty
+     */
+    protected abstract String getEventFormat(int kind);
+
+    /**
+     * @param kind kind of the event, see {@link BirthdayStore#getKind(int)}
+     * @param years age, or number of years since the event
+     * @return description of the event, its argument is the number of years (plural form)
+     */
+    protected abstract String getYearsFormat(int kind, int years);
+
+    /**
+     * Render the texts of the upcoming birthdays
+     * @param today today epoch day
+     * @param upcoming sorted upcoming birthdays
+     */
+    public void format(int today, UpcomingBirthdays upcoming) {
+        status.setLength(0);
+        expandedTitle.setLength(0);
+        expandedBody.setLength(0);
+
+        for (int i = 0, count = upcoming.size(); i < count; i++) {
+            final int days = upcoming.getDays(i);
+            final int date = upcoming.getDate(i);
+            final int kind = upcoming.getKind(i);
+
+            if (i == 0) {
+                // A single birthday will be displayed
+                status.append(upcoming.getDisplayName(i));
+                getTitleTemplate(kind).appendTo(expandedTitle, upcoming.getDisplayName(i));
+            }
+            else {
+                // More than 1 upcoming birthday: display contact name
+                expandedBody.append('\n').append(upcoming.getDisplayName(i)).append(", ");
+            }
+
+            // Age, or kind of event
+            final int year = BirthdayDateParser.getYear(date);
+            final String label = upcoming.getLabel(i);
+            if (label != null) {
+                expandedBody.append(label).append(' ');
+            }
+            else if (year != BirthdayDateParser.UNKNOWN_YEAR) {
+                int years = EpochDays.ageAtNextBirthday(today, date, year);
+                getYearsTemplate(kind, years).appendTo(expandedBody, years).append(' ');
+            }
+            else {
+                final MessageTemplate eventTemplate = getEventTemplate(kind);
+                if (!eventTemplate.isEmpty()) {
+                    eventTemplate.appendTo(expandedBody, "").append(' ');
+                }
+            }
+
+            // When
+            switch (days) {
+                case 0:
+                    todayTemplate.appendTo(expandedBody, days);
+                    break;
+                case 1:
+                    tomorrowTemplate.appendTo(expandedBody, days);
+                    break;
+                default:
+                    daysTemplate.appendTo(expandedBody, days);
+            }
+        }
+
+        if (upcoming.getCount() > 1) {
+            status.append(" + ").append(upcoming.getCount() - 1);
+        }
+    }
+
+    public String getStatus() {
+        return status.toString();
+    }
+
+    public String getExpandedTitle() {
+        return expandedTitle.toString();
+    }
+
+    public String getExpandedBody() {
+        return expandedBody.toString();
+    }
+
+    private MessageTemplate getTitleTemplate(int kind) {
+        MessageTemplate template = titleTemplates[kind];
+        if (template == null) {
+            template = MessageTemplate.compile(getTitleFormat(kind));
+            titleTemplates[kind] = template;
+        }
+        return template;
+    }
+
+    private MessageTemplate getEventTemplate(int kind) {
+        MessageTemplate template = eventTemplates[kind];
+        if (template == null) {
+            template = MessageTemplate.compile(getEventFormat(kind));
+            eventTemplates[kind] = template;
+        }
+        return template;
+    }
+
+    private MessageTemplate getYearsTemplate(int kind, int years) {
+        if (years < 0 || years >= NB_CACHED_YEARS) {
+            return MessageTemplate.compile(getYearsFormat(kind, years));
+        }
+        MessageTemplate template = yearsTemplates[kind][years];
+        if (template == null) {
+            template = MessageTemplate.compile(getYearsFormat(kind, years));
+            yearsTemplates[kind][years] = template;
+        }
+        return template;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Timings of the phases of the recent updates, kept in a fixed-size ring buffer.
+ * <p>
+ * Timers are started with {@link #start()} and stopped with {@link #stop(int, long)}.
+ * When diagnostics are disabled, {@link #start()} only reads a volatile field and {@link #stop(int, long)}
+ * returns immediately.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 22:45
+ */
+public final class Diagnostics {
+
+    // Phases of an update
+    public static final int PHASE_QUERY = 0;
+    public static final int PHASE_READ = 1;
+    public static final int PHASE_GROUPS = 2;
+    public static final int PHASE_SORT = 3;
+    public static final int PHASE_UPCOMING = 4;
+    public static final int PHASE_LOCALE = 5;
+    public static final int PHASE_FORMAT = 6;
+    public static final int PHASE_TOTAL = 7;
+    private static final String[] PHASE_NAMES = {
+            "query", "read", "groups", "sort", "upcoming", "locale", "format", "total"
+    };
+    private static final int NB_PHASES = PHASE_NAMES.length;
+
+    // Caches
+    /** ExtensionData reused when nothing has changed */
+    public static final int CACHE_EXTENSION_DATA = 0;
+    /** Birthday index refreshed incrementally instead of a full scan */
+    public static final int CACHE_INDEX = 1;
+    private static final int NB_CACHES = 2;
+
+    private static final int NB_RUNS = 32;
+
+    private static volatile boolean enabled;
+
+    // Ring buffer of the recent runs
+    private static final long[][] durations = new long[NB_RUNS][NB_PHASES];
+    private static final int[] rows = new int[NB_RUNS];
+    private static int nbRuns;
+    private static int next;
+
+    // Current run
+    private static final long[] current = new long[NB_PHASES];
+    private static int currentRows;
+    private static long currentStart;
+
+    private static final int[] cacheHits = new int[NB_CACHES];
+    private static final int[] cacheMisses = new int[NB_CACHES];
+
+    private Diagnostics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static synchronized void setEnabled(boolean enabled) {
+        if (Diagnostics.enabled != enabled) {
+            Diagnostics.enabled = enabled;
+            clear();
+        }
+    }
+
+    public static synchronized void clear() {
+        nbRuns = 0;
+        next = 0;
+        currentStart = 0;
+        Arrays.fill(cacheHits, 0);
+        Arrays.fill(cacheMisses, 0);
+    }
+
+    /**
+     * Start a new run, the previous one is discarded if it has not been {@link #endRun() ended}
+     */
+    public static void startRun() {
+        if (!enabled) return;
+        synchronized (Diagnostics.class) {
+            Arrays.fill(current, 0);
+            currentRows = 0;
+            currentStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Record the current run in the ring buffer
+     */
+    public static void endRun() {
+        if (!enabled) return;
+        synchronized (Diagnostics.class) {
+            if (currentStart == 0) return;
+            current[PHASE_TOTAL] = System.nanoTime() - currentStart;
+            System.arraycopy(current, 0, durations[next], 0, NB_PHASES);
+            rows[next] = currentRows;
+            next = (next + 1) % NB_RUNS;
+            nbRuns = Math.min(nbRuns + 1, NB_RUNS);
+            currentStart = 0;
+        }
+    }
+
+    /**
+     * @return start time of a timer, to give to {@link #stop(int, long)}
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Add the time elapsed since <code>start</code> to a phase of the current run
+     */
+    public static void stop(int phase, long start) {
+        if (start == 0) return;
+        final long duration = System.nanoTime() - start;
+        synchronized (Diagnostics.class) {
+            current[phase] += duration;
+        }
+    }
+
+    /**
+     * Add rows read from the contacts provider to the current run
+     */
+    public static void addRows(int count) {
+        if (!enabled) return;
+        synchronized (Diagnostics.class) {
+            currentRows += count;
+        }
+    }
+
+    public static void cacheHit(int cache) {
+        if (!enabled) return;
+        synchronized (Diagnostics.class) {
+            cacheHits[cache]++;
+        }
+    }
+
+    public static void cacheMiss(int cache) {
+        if (!enabled) return;
+        synchronized (Diagnostics.class) {
+            cacheMisses[cache]++;
+        }
+    }
+
+    /**
+     * @return text report of the recent runs: p50/p95 of each phase, rows read and cache hit rates
+     */
+    public static synchronized String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "Recent updates: %d\n", nbRuns));
+        sb.append(String.format(Locale.US, "ExtensionData reused: %s\n", hitRate(CACHE_EXTENSION_DATA)));
+        sb.append(String.format(Locale.US, "Incremental refresh: %s\n", hitRate(CACHE_INDEX)));
+        if (nbRuns == 0) return sb.toString();
+
+        int[] sortedRows = Arrays.copyOf(rows, nbRuns);
+        Arrays.sort(sortedRows);
+        sb.append(String.format(Locale.US, "Rows read: p50 %d, p95 %d\n",
+                percentile(sortedRows, 50), percentile(sortedRows, 95)));
+
+        sb.append(String.format(Locale.US, "\n%-9s %9s %9s\n", "ms", "p50", "p95"));
+        long[] values = new long[nbRuns];
+        for (int phase = 0; phase < NB_PHASES; phase++) {
+            for (int run = 0; run < nbRuns; run++) {
+                values[run] = durations[run][phase];
+            }
+            Arrays.sort(values);
+            sb.append(String.format(Locale.US, "%-9s %9.1f %9.1f\n", PHASE_NAMES[phase],
+                    percentile(values, 50) / 1e6, percentile(values, 95) / 1e6));
+        }
+        return sb.toString();
+    }
+
+    private static String hitRate(int cache) {
+        final int total = cacheHits[cache] + cacheMisses[cache];
+        if (total == 0) return "-";
+        return String.format(Locale.US, "%d/%d (%d%%)", cacheHits[cache], total, cacheHits[cache] * 100 / total);
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values
+     */
+    private static long percentile(long[] sortedValues, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.length);
+        return sortedValues[Math.max(rank, 1) - 1];
+    }
+
+    private static int percentile(int[] sortedValues, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.length);
+        return sortedValues[Math.max(rank, 1) - 1];
+    }
+}
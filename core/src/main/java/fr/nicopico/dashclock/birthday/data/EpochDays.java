@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import java.util.TimeZone;
+
+/**
+ * Date arithmetic on epoch days (number of days since 1970-01-01), using integers only.
+ * <p>
+ * Birthdays on February 29th are celebrated on March 1st on non-leap years.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 17:48
+ */
+public final class EpochDays {
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+    /** Number of days in a 400 years cycle of the gregorian calendar */
+    private static final int DAYS_PER_ERA = 146097;
+    /** Epoch day of 0000-03-01 */
+    private static final int ERA_ORIGIN = -719468;
+
+    private EpochDays() {
+    }
+
+    /**
+     * @return epoch day of the instant, in the given time zone
+     */
+    public static int fromMillis(long millis, TimeZone timeZone) {
+        long localMillis = millis + timeZone.getOffset(millis);
+        return (int) floorDiv(localMillis, MILLIS_PER_DAY);
+    }
+
+    /**
+     * @return first instant of the epoch day, in the given time zone
+     */
+    public static long startOfDay(int epochDay, TimeZone timeZone) {
+        final long utcMidnight = epochDay * MILLIS_PER_DAY;
+        // Midnight is computed with the offsets of the day before and of the day after,
+        // the earliest one falling on the epoch day is kept (a DST transition may skip midnight)
+        final long before = utcMidnight - timeZone.getOffset(utcMidnight - MILLIS_PER_DAY);
+        final long after = utcMidnight - timeZone.getOffset(utcMidnight + MILLIS_PER_DAY);
+        final boolean beforeValid = fromMillis(before, timeZone) == epochDay;
+        final boolean afterValid = fromMillis(after, timeZone) == epochDay;
+        if (beforeValid && afterValid) return Math.min(before, after);
+        if (beforeValid) return before;
+        if (afterValid) return after;
+        return Math.max(before, after);
+    }
+
+    /**
+     * @return epoch day of the date
+     */
+    public static int fromDate(int year, int month, int day) {
+        // Years start in March, so that February 29th is the last day of the year
+        if (month <= 2) year--;
+        final int era = floorDiv(year, 400);
+        final int yearOfEra = year - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * DAYS_PER_ERA + dayOfEra + ERA_ORIGIN;
+    }
+
+    /**
+     * @return date of the epoch day, packed as in {@link BirthdayDateParser}
+     */
+    public static int toDate(int epochDay) {
+        final int days = epochDay - ERA_ORIGIN;
+        final int era = floorDiv(days, DAYS_PER_ERA);
+        final int dayOfEra = days - era * DAYS_PER_ERA;
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        final int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        final int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return BirthdayDateParser.pack(year, month, day);
+    }
+
+    /**
+     * @return year of the epoch day
+     */
+    public static int getYear(int epochDay) {
+        return BirthdayDateParser.getYear(toDate(epochDay));
+    }
+
+    public static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    /**
+     * @param year year of the birthday
+     * @param birthday packed birthday, the year is ignored
+     * @return epoch day of the birthday in <code>year</code>
+     */
+    public static int birthdayIn(int year, int birthday) {
+        final int month = BirthdayDateParser.getMonth(birthday);
+        final int day = BirthdayDateParser.getDay(birthday);
+        if (month == 2 && day == 29 && !isLeapYear(year)) {
+            return fromDate(year, 3, 1);
+        }
+        return fromDate(year, month, day);
+    }
+
+    /**
+     * @param today today epoch day
+     * @param birthday packed birthday, the year is ignored
+     * @return number of days before the next birthday, 0 if the birthday is today
+     */
+    public static int daysUntil(int today, int birthday) {
+        final int year = getYear(today);
+        int next = birthdayIn(year, birthday);
+        if (next < today) {
+            next = birthdayIn(year + 1, birthday);
+        }
+        return next - today;
+    }
+
+    /**
+     * @param today today epoch day
+     * @param birthday packed birthday, the year is ignored
+     * @param birthYear year of birth
+     * @return age of the contact on its next birthday (today included)
+     */
+    public static int ageAtNextBirthday(int today, int birthday, int birthYear) {
+        final int year = getYear(today);
+        final int nextBirthdayYear = birthdayIn(year, birthday) < today ? year + 1 : year;
+        return nextBirthdayYear - birthYear;
+    }
+
+    private static int floorDiv(int x, int y) {
+        int result = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) result--;
+        return result;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long result = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) result--;
+        return result;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+/**
+ * Read the event rows of the contacts provider, in the order of the query: route each row to a kind of event,
+ * ignore the events already read from another raw contact of the same contact, and validate the dates.
+ * <p>
+ * Rows are read in passes, see {@link #startPass()}. A row is kept if {@link #isDuplicate(long, int)} returns
+ * <code>false</code> and {@link #accept(long, int, int, boolean)} returns <code>true</code>.
+ *
+ * User: Nicolas PICON
+ * Date: 18/10/26 - 15:20
+ */
+public final class EventReader {
+
+    // Types of the events, see ContactsContract.CommonDataKinds.Event
+    public static final int TYPE_CUSTOM = 0;
+    public static final int TYPE_ANNIVERSARY = 1;
+    public static final int TYPE_OTHER = 2;
+    public static final int TYPE_BIRTHDAY = 3;
+
+    // Keys of the events already read in the current pass, see #isDuplicate
+    private final LongHashSet readEvents = new LongHashSet(256);
+    private int duplicates;
+    private int parseFailures;
+
+    /**
+     * Start a new pass over the rows: forget the events read so far and reset the counters
+     */
+    public void startPass() {
+        readEvents.clear();
+        duplicates = 0;
+        parseFailures = 0;
+    }
+
+    /**
+     * @param type type of the event in the contacts provider
+     * @return {@link BirthdayStore#KIND_BIRTHDAY}, {@link BirthdayStore#KIND_ANNIVERSARY}
+     * or {@link BirthdayStore#KIND_OTHER}
+     */
+    public static int getKind(int type) {
+        switch (type) {
+            case TYPE_BIRTHDAY:
+                return BirthdayStore.KIND_BIRTHDAY;
+            case TYPE_ANNIVERSARY:
+                return BirthdayStore.KIND_ANNIVERSARY;
+            default:
+                // TYPE_OTHER and TYPE_CUSTOM, whose label is chosen by the user
+                return BirthdayStore.KIND_OTHER;
+        }
+    }
+
+    /**
+     * Check if an event of the contact has already been read in the current pass, from another raw contact.
+     * Other events are never duplicates, as a contact may have several of them
+     */
+    public boolean isDuplicate(long contactId, int kind) {
+        if (kind == BirthdayStore.KIND_OTHER || !readEvents.contains(contactId * BirthdayStore.NB_KINDS + kind)) {
+            return false;
+        }
+        duplicates++;
+        return true;
+    }
+
+    /**
+     * Parse the date of an event, a missing date is not counted as a parse failure
+     * @param value date of the event, can be <code>null</code>
+     * @return packed date, or {@link BirthdayDateParser#INVALID}
+     */
+    public int parseDate(CharSequence value) {
+        if (value == null || value.length() == 0) return BirthdayDateParser.INVALID;
+
+        int date = BirthdayDateParser.parse(value);
+        if (date == BirthdayDateParser.INVALID) {
+            parseFailures++;
+        }
+        return date;
+    }
+
+    /**
+     * Check if an event can be kept: birthdays <b>must</b> have a date and a display name.
+     * A kept event is recorded, so that the same event of the other raw contacts is ignored
+     * @param date packed date returned by {@link #parseDate(CharSequence)}
+     * @return <code>true</code> if the event is valid
+     */
+    public boolean accept(long contactId, int kind, int date, boolean hasDisplayName) {
+        if (date == BirthdayDateParser.INVALID || !hasDisplayName) {
+            return false;
+        }
+        readEvents.add(contactId * BirthdayStore.NB_KINDS + kind);
+        return true;
+    }
+
+    /**
+     * @return number of duplicate events ignored in the current pass
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return number of dates that could not be parsed in the current pass
+     */
+    public int getParseFailures() {
+        return parseFailures;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Members of the contact groups, as a bitset of the {@link BirthdayStore} rows for each group.
+ * <p>
+ * Memberships are filled with {@link #add(long, long)} during a single scan of the group memberships,
+ * then a selection of groups is resolved by OR-ing their bitsets, without querying the contacts again.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 19:02
+ */
+public final class GroupMemberships {
+
+    private final int size;
+    /** Contact ids of the store, sorted and without duplicates */
+    private final long[] contactIds;
+    /** First row of each contact of <code>contactIds</code>, other rows are chained in <code>nextRow</code> */
+    private final int[] firstRow;
+    private final int[] nextRow;
+    /** First row of each contact, to count the contacts of a group */
+    private final BitSet firstRows;
+
+    private final Map<Long, BitSet> members = new HashMap<Long, BitSet>();
+
+    public GroupMemberships(BirthdayStore store) {
+        size = store.size();
+
+        long[] ids = new long[size];
+        for (int row = 0; row < size; row++) {
+            ids[row] = store.getContactId(row);
+        }
+        Arrays.sort(ids);
+        int nbContacts = 0;
+        for (int i = 0; i < size; i++) {
+            if (nbContacts == 0 || ids[i] != ids[nbContacts - 1]) {
+                ids[nbContacts++] = ids[i];
+            }
+        }
+        contactIds = Arrays.copyOf(ids, nbContacts);
+
+        firstRow = new int[nbContacts];
+        nextRow = new int[size];
+        Arrays.fill(firstRow, -1);
+        for (int row = size - 1; row >= 0; row--) {
+            int index = Arrays.binarySearch(contactIds, store.getContactId(row));
+            nextRow[row] = firstRow[index];
+            firstRow[index] = row;
+        }
+
+        firstRows = new BitSet(size);
+        for (int row : firstRow) {
+            firstRows.set(row);
+        }
+    }
+
+    /**
+     * Add a contact to a group. Contacts without birthday are ignored
+     */
+    public void add(long contactId, long groupId) {
+        final int index = Arrays.binarySearch(contactIds, contactId);
+        if (index < 0) return;
+
+        BitSet groupMembers = members.get(groupId);
+        if (groupMembers == null) {
+            groupMembers = new BitSet(size);
+            members.put(groupId, groupMembers);
+        }
+        for (int row = firstRow[index]; row != -1; row = nextRow[row]) {
+            groupMembers.set(row);
+        }
+    }
+
+    /**
+     * Copy the memberships of another instance, except for some contacts
+     * @param store birthdays of <code>other</code>
+     * @param excludedContactIds sorted ids of the contacts to skip
+     */
+    public void addAll(GroupMemberships other, BirthdayStore store, long[] excludedContactIds) {
+        for (Map.Entry<Long, BitSet> entry : other.members.entrySet()) {
+            final long groupId = entry.getKey();
+            final BitSet groupMembers = entry.getValue();
+            for (int row = groupMembers.nextSetBit(0); row >= 0; row = groupMembers.nextSetBit(row + 1)) {
+                final long contactId = store.getContactId(row);
+                if (Arrays.binarySearch(excludedContactIds, contactId) < 0) {
+                    add(contactId, groupId);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return sorted ids of the groups of the contact, empty if the contact has no birthday
+     */
+    public long[] getGroupIds(long contactId) {
+        final int index = Arrays.binarySearch(contactIds, contactId);
+        if (index < 0) return new long[0];
+
+        long[] groupIds = new long[members.size()];
+        int nbGroups = 0;
+        for (Map.Entry<Long, BitSet> entry : members.entrySet()) {
+            if (entry.getValue().get(firstRow[index])) {
+                groupIds[nbGroups++] = entry.getKey();
+            }
+        }
+        groupIds = Arrays.copyOf(groupIds, nbGroups);
+        Arrays.sort(groupIds);
+        return groupIds;
+    }
+
+    /**
+     * @return rows of the group members, must not be modified
+     */
+    public BitSet getMembers(long groupId) {
+        BitSet groupMembers = members.get(groupId);
+        return groupMembers != null ? groupMembers : new BitSet(0);
+    }
+
+    /**
+     * @param rows only count the contacts with one of these rows, all contacts if <code>null</code>
+     * @return number of contacts of the group
+     */
+    public int countContacts(long groupId, BitSet rows) {
+        final BitSet groupMembers = members.get(groupId);
+        if (groupMembers == null) return 0;
+
+        int count = 0;
+        for (int row = groupMembers.nextSetBit(0); row >= 0; row = groupMembers.nextSetBit(row + 1)) {
+            if (!firstRows.get(row)) continue;
+            // Other rows of the contact
+            for (int contactRow = row; contactRow != -1; contactRow = nextRow[contactRow]) {
+                if (rows == null || rows.get(contactRow)) {
+                    count++;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param groupIds ids of the selected groups
+     * @return rows of the contacts belonging to at least one of the groups
+     */
+    public BitSet select(Collection<String> groupIds) {
+        BitSet result = new BitSet(size);
+        for (String groupId : groupIds) {
+            try {
+                result.or(getMembers(Long.parseLong(groupId)));
+            }
+            catch (NumberFormatException e) {
+                // Not a group id, ignore
+            }
+        }
+        return result;
+    }
+}
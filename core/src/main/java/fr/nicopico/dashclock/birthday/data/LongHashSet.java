@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import java.util.Arrays;
+
+/**
+ * Set of <code>long</code> values, without boxing.
+ * <p>
+ * Values are stored in a single array with open addressing (linear probing), kept at most half full.
+ *
+ * User: Nicolas PICON
+ * Date: 18/10/26 - 01:10
+ */
+public final class LongHashSet {
+
+    // Marks a free slot, the value itself is tracked by containsFree
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long[] values;
+    private int size;
+    private boolean containsFree;
+
+    /**
+     * @param expectedSize number of values the set should hold without growing
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity *= 2;
+        }
+        values = new long[capacity];
+        Arrays.fill(values, FREE);
+    }
+
+    /**
+     * @return <code>true</code> if the value was not in the set
+     */
+    public boolean add(long value) {
+        if (value == FREE) {
+            if (containsFree) return false;
+            containsFree = true;
+            size++;
+            return true;
+        }
+
+        final int mask = values.length - 1;
+        int i = hash(value) & mask;
+        while (values[i] != FREE) {
+            if (values[i] == value) return false;
+            i = (i + 1) & mask;
+        }
+        values[i] = value;
+        if (++size * 2 > values.length) {
+            grow();
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == FREE) return containsFree;
+
+        final int mask = values.length - 1;
+        for (int i = hash(value) & mask; values[i] != FREE; i = (i + 1) & mask) {
+            if (values[i] == value) return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(values, FREE);
+        size = 0;
+        containsFree = false;
+    }
+
+    private void grow() {
+        final long[] oldValues = values;
+        values = new long[oldValues.length * 2];
+        Arrays.fill(values, FREE);
+
+        final int mask = values.length - 1;
+        for (long value : oldValues) {
+            if (value == FREE) continue;
+            int i = hash(value) & mask;
+            while (values[i] != FREE) {
+                i = (i + 1) & mask;
+            }
+            values[i] = value;
+        }
+    }
+
+    private static int hash(long value) {
+        // Spread the bits of sequential ids over the whole table
+        final long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+/**
+ * Format string with at most one argument (<code>%s</code>, <code>%d</code> or <code>%1$s</code>, <code>%1$d</code>),
+ * parsed once and appended without allocation.
+ * <p>
+ * Integer arguments are written with ASCII digits.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 23:50
+ */
+public final class MessageTemplate {
+
+    private final String prefix;
+    private final String suffix;
+    private final boolean hasArgument;
+
+    /**
+     * @throws IllegalArgumentException if the format uses more than one argument, or an unsupported conversion
+     */
+    public static MessageTemplate compile(String format) {
+        StringBuilder prefix = new StringBuilder(format.length());
+        StringBuilder suffix = null;
+
+        for (int i = 0, length = format.length(); i < length; i++) {
+            final char c = format.charAt(i);
+            StringBuilder sb = suffix != null ? suffix : prefix;
+            if (c != '%') {
+                sb.append(c);
+                continue;
+            }
+
+            // Conversion: %%, %s, %d, %1$s, %1$d
+            int j = i + 1;
+            if (j < length && format.charAt(j) == '%') {
+                sb.append('%');
+                i = j;
+                continue;
+            }
+            if (j + 1 < length && format.charAt(j) == '1' && format.charAt(j + 1) == '$') {
+                j += 2;
+            }
+            if (j >= length || (format.charAt(j) != 's' && format.charAt(j) != 'd')) {
+                throw new IllegalArgumentException("Unsupported conversion at " + i + " in \"" + format + "\"");
+            }
+            if (suffix != null) {
+                throw new IllegalArgumentException("More than one argument in \"" + format + "\"");
+            }
+            suffix = new StringBuilder(length - j);
+            i = j;
+        }
+
+        return new MessageTemplate(
+                prefix.toString(),
+                suffix != null ? suffix.toString() : "",
+                suffix != null
+        );
+    }
+
+    private MessageTemplate(String prefix, String suffix, boolean hasArgument) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.hasArgument = hasArgument;
+    }
+
+    /**
+     * @return <code>true</code> if the template renders nothing
+     */
+    public boolean isEmpty() {
+        return !hasArgument && prefix.length() == 0 && suffix.length() == 0;
+    }
+
+    public StringBuilder appendTo(StringBuilder sb, CharSequence argument) {
+        sb.append(prefix);
+        if (hasArgument) sb.append(argument);
+        return sb.append(suffix);
+    }
+
+    public StringBuilder appendTo(StringBuilder sb, int argument) {
+        sb.append(prefix);
+        if (hasArgument) sb.append(argument);
+        return sb.append(suffix);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import java.util.Arrays;
+
+/**
+ * The first upcoming birthdays, sorted by date then by name.
+ * <p>
+ * Birthdays can be offered in any order: only the first <code>capacity</code> ones are kept,
+ * in a bounded heap whose root is the latest kept birthday. The total number of offered birthdays
+ * is still counted, so memory does not depend on the number of contacts.
+ *
+ * User: Nicolas PICON
+ * Date: 17/10/26 - 20:15
+ */
+public final class UpcomingBirthdays {
+
+    private final int capacity;
+    private int size;
+    private int count;
+    private boolean sorted;
+
+    // Kept birthdays, stored in slots
+    private final int[] days;
+    private final long[] contactIds;
+    private final String[] lookupKeys;
+    private final String[] displayNames;
+    private final int[] dates;
+    private final int[] kinds;
+    private final String[] labels;
+
+    /** Slots ordered as a max-heap, or sorted after {@link #sort()} */
+    private final int[] heap;
+
+    public UpcomingBirthdays(int capacity) {
+        this.capacity = capacity;
+        days = new int[capacity];
+        contactIds = new long[capacity];
+        lookupKeys = new String[capacity];
+        displayNames = new String[capacity];
+        dates = new int[capacity];
+        kinds = new int[capacity];
+        labels = new String[capacity];
+        heap = new int[capacity];
+    }
+
+    public void clear() {
+        Arrays.fill(lookupKeys, 0, size, null);
+        Arrays.fill(displayNames, 0, size, null);
+        Arrays.fill(labels, 0, size, null);
+        size = 0;
+        count = 0;
+        sorted = false;
+    }
+
+    /**
+     * @return <code>true</code> if a birthday in <code>days</code> days may be kept.
+     * Otherwise, it should be {@link #skip() skipped} without reading its details
+     */
+    public boolean isCandidate(int days) {
+        return size < capacity || (size > 0 && days <= this.days[heap[0]]);
+    }
+
+    /**
+     * Count a birthday that cannot be kept
+     */
+    public void skip() {
+        count++;
+    }
+
+    /**
+     * Offer an upcoming birthday
+     * @param days number of days before the birthday
+     * @param date birthday, packed by {@link BirthdayDateParser}
+     */
+    public void offer(int days, long contactId, String lookupKey, String displayName, int date) {
+        offer(days, contactId, lookupKey, displayName, date, BirthdayStore.KIND_BIRTHDAY);
+    }
+
+    /**
+     * Offer an upcoming event
+     * @param kind kind of the event, see {@link BirthdayStore#getKind(int)}
+     * @see #offer(int, long, String, String, int)
+     */
+    public void offer(int days, long contactId, String lookupKey, String displayName, int date, int kind) {
+        offer(days, contactId, lookupKey, displayName, date, kind, null);
+    }
+
+    /**
+     * Offer an upcoming event
+     * @param label label of a custom event, or <code>null</code>
+     * @see #offer(int, long, String, String, int, int)
+     */
+    public void offer(int days, long contactId, String lookupKey, String displayName, int date, int kind,
+                      String label) {
+        if (sorted) throw new IllegalStateException("Birthdays have already been sorted");
+        count++;
+
+        if (size < capacity) {
+            heap[size] = size;
+            set(size, days, contactId, lookupKey, displayName, date, kind, label);
+            siftUp(size++);
+        }
+        else if (capacity > 0 && compare(days, displayName, heap[0]) < 0) {
+            // Replace the latest birthday
+            set(heap[0], days, contactId, lookupKey, displayName, date, kind, label);
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * Sort the kept birthdays, no other birthday can be offered until {@link #clear()}
+     */
+    public void sort() {
+        if (sorted) return;
+        // Heap sort: move the root of the heap to its end
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        sorted = true;
+    }
+
+    /**
+     * @return number of kept birthdays
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of offered birthdays, including the ones that have not been kept
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int getDays(int i) {
+        return days[slot(i)];
+    }
+
+    public long getContactId(int i) {
+        return contactIds[slot(i)];
+    }
+
+    public String getLookupKey(int i) {
+        return lookupKeys[slot(i)];
+    }
+
+    public String getDisplayName(int i) {
+        return displayNames[slot(i)];
+    }
+
+    /**
+     * @return birthday, packed by {@link BirthdayDateParser}
+     */
+    public int getDate(int i) {
+        return dates[slot(i)];
+    }
+
+    /**
+     * @return kind of the event, see {@link BirthdayStore#getKind(int)}
+     */
+    public int getKind(int i) {
+        return kinds[slot(i)];
+    }
+
+    /**
+     * @return label of a custom event, or <code>null</code>
+     */
+    public String getLabel(int i) {
+        return labels[slot(i)];
+    }
+
+    private int slot(int i) {
+        if (!sorted) throw new IllegalStateException("Birthdays must be sorted first");
+        return heap[i];
+    }
+
+    private void set(int slot, int days, long contactId, String lookupKey, String displayName, int date, int kind,
+                     String label) {
+        this.days[slot] = days;
+        contactIds[slot] = contactId;
+        lookupKeys[slot] = lookupKey;
+        displayNames[slot] = displayName;
+        dates[slot] = date;
+        kinds[slot] = kind;
+        labels[slot] = label;
+    }
+
+    /**
+     * Compare a birthday with the one of a slot, by days then by name
+     */
+    private int compare(int days, String displayName, int slot) {
+        if (days != this.days[slot]) return days < this.days[slot] ? -1 : 1;
+        return displayName.compareTo(displayNames[slot]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (compare(days[heap[i]], displayNames[heap[i]], heap[parent]) <= 0) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int largest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < end && compare(days[heap[left]], displayNames[heap[left]], heap[largest]) > 0) {
+                largest = left;
+            }
+            if (right < end && compare(days[heap[right]], displayNames[heap[right]], heap[largest]) > 0) {
+                largest = right;
+            }
+            if (largest == i) break;
+            swap(i, largest);
+            i = largest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Check the radix sort and the schedule of {@link BirthdayCalendar} against the days until each birthday,
+ * computed by {@link EpochDays} for every row of the store.
+ *
+ * User: Nicolas PICON
+ * Date: 18/10/26 - 12:20
+ */
+public class BirthdayCalendarTest {
+
+    private static final int NB_BIRTHDAYS = 2000;
+    private static final int CAPACITY = 50;
+
+    private BirthdayStore store;
+    private BirthdayCalendar calendar;
+    private BitSet filter;
+
+    @Before
+    public void setUp() {
+        final Random random = new Random(42);
+        BirthdayStore.Builder builder = new BirthdayStore.Builder(NB_BIRTHDAYS);
+        for (int i = 0; i < NB_BIRTHDAYS; i++) {
+            int month = 1 + random.nextInt(12);
+            int day = 1 + random.nextInt(daysInMonth(month));
+            if (i % 10 == 0) {
+                // Around the end of the year and February 29th
+                final int[][] edges = { { 12, 31 }, { 1, 1 }, { 2, 28 }, { 2, 29 }, { 3, 1 } };
+                month = edges[i / 10 % edges.length][0];
+                day = edges[i / 10 % edges.length][1];
+            }
+            final int year = random.nextBoolean() ? BirthdayDateParser.UNKNOWN_YEAR : 1950 + random.nextInt(60);
+            // Few names: many birthdays have the same day and name
+            final int kind = random.nextInt(BirthdayStore.NB_KINDS);
+            final String label = kind == BirthdayStore.KIND_OTHER && random.nextBoolean() ? "Label " + i : null;
+            builder.add(i, "key" + i, "Name " + random.nextInt(NB_BIRTHDAYS / 4),
+                    BirthdayDateParser.pack(year, month, day), kind, label);
+        }
+        store = builder.build();
+        calendar = new BirthdayCalendar(store, new GroupMemberships(store));
+
+        filter = new BitSet(NB_BIRTHDAYS);
+        for (int row = 0; row < NB_BIRTHDAYS; row++) {
+            if (random.nextInt(3) != 0) filter.set(row);
+        }
+    }
+
+    @Test
+    public void wholeYear() {
+        // The radix sort of all the rows, as laid out in the schedule
+        for (int year = 2015; year <= 2017; year++) {
+            check(EpochDays.fromDate(year, 1, 1), 365, null);
+        }
+    }
+
+    @Test
+    public void everyDay() {
+        // Schedules are replaced going forward and backward in time
+        for (int today = EpochDays.fromDate(2015, 1, 1), end = EpochDays.fromDate(2017, 1, 10); today < end; today++) {
+            check(today, 30, filter);
+            check(today, 0, null);
+        }
+        for (int today = EpochDays.fromDate(2020, 3, 10); today > EpochDays.fromDate(2019, 2, 20); today--) {
+            check(today, 7, null);
+        }
+    }
+
+    @Test
+    public void yearWrapAround() {
+        final int[][] todays = {
+                { 2015, 12, 31 }, { 2016, 12, 31 }, { 2016, 1, 1 }, { 2015, 3, 1 }, { 2016, 2, 29 },
+                { 2016, 3, 1 }, { 2016, 2, 28 }, { 2099, 12, 20 }, { 2100, 2, 28 }
+        };
+        for (int[] date : todays) {
+            final int today = EpochDays.fromDate(date[0], date[1], date[2]);
+            for (int daysLimit : new int[] { 0, 1, 2, 31, 364, 365, 366, 1000 }) {
+                check(today, daysLimit, null);
+                check(today, daysLimit, filter);
+            }
+        }
+    }
+
+    private void check(int today, int daysLimit, BitSet filter) {
+        final int date = EpochDays.toDate(today);
+        final String message = BirthdayDateParser.getYear(date) + "-" + BirthdayDateParser.getMonth(date) + "-"
+                + BirthdayDateParser.getDay(date) + " + " + daysLimit + " days";
+        final int[] expected = expected(today, daysLimit, filter);
+
+        // All the upcoming birthdays, then the first ones only
+        check(message, today, daysLimit, filter, expected, calendar.size());
+        check(message, today, daysLimit, filter, expected, CAPACITY);
+    }
+
+    /**
+     * The heap sort of {@link UpcomingBirthdays} is not stable: birthdays of the same day and name may be swapped,
+     * or replaced by the last kept one. They are identified by their contact id, the row of the store
+     */
+    private void check(String message, int today, int daysLimit, BitSet filter, int[] expected, int capacity) {
+        UpcomingBirthdays upcoming = new UpcomingBirthdays(capacity);
+        calendar.getUpcomingBirthdays(today, daysLimit, filter, upcoming);
+        assertEquals(message, expected.length, upcoming.getCount());
+        assertEquals(message, Math.min(capacity, expected.length), upcoming.size());
+
+        BitSet keptRows = new BitSet(store.size());
+        for (int i = 0; i < upcoming.size(); i++) {
+            final int row = (int) upcoming.getContactId(i);
+            assertEquals(message + ", days of #" + i,
+                    EpochDays.daysUntil(today, store.getDate(expected[i])), upcoming.getDays(i));
+            assertEquals(message + ", name of #" + i, store.getDisplayName(expected[i]), upcoming.getDisplayName(i));
+            assertEquals(message + ", days of row " + row,
+                    EpochDays.daysUntil(today, store.getDate(row)), upcoming.getDays(i));
+            assertEquals(message, store.getDisplayName(row), upcoming.getDisplayName(i));
+            assertEquals(message, store.getLookupKey(row), upcoming.getLookupKey(i));
+            assertEquals(message, store.getKind(row), upcoming.getKind(i));
+            assertEquals(message, store.getLabel(row), upcoming.getLabel(i));
+            assertEquals(message, BirthdayDateParser.pack(store.getYear(row), store.getMonth(row), store.getDay(row)),
+                    upcoming.getDate(i));
+            assertFalse(message + ", row " + row + " kept twice", keptRows.get(row));
+            keptRows.set(row);
+        }
+
+        if (upcoming.size() == expected.length) {
+            // Every upcoming birthday is kept
+            BitSet expectedRows = new BitSet(store.size());
+            for (int row : expected) {
+                expectedRows.set(row);
+            }
+            assertEquals(message, expectedRows, keptRows);
+        }
+    }
+
+    /**
+     * @return rows of the birthdays in the next <code>daysLimit</code> days, sorted by date then by name
+     */
+    private int[] expected(final int today, int daysLimit, BitSet filter) {
+        List<Integer> rows = new ArrayList<Integer>();
+        for (int row = 0; row < store.size(); row++) {
+            if ((filter == null || filter.get(row)) && EpochDays.daysUntil(today, store.getDate(row)) <= daysLimit) {
+                rows.add(row);
+            }
+        }
+        Collections.sort(rows, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer row1, Integer row2) {
+                int result = compareInts(EpochDays.daysUntil(today, store.getDate(row1)),
+                        EpochDays.daysUntil(today, store.getDate(row2)));
+                if (result == 0) result = store.getDisplayName(row1).compareTo(store.getDisplayName(row2));
+                return result;
+            }
+        });
+
+        int[] result = new int[rows.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = rows.get(i);
+        }
+        return result;
+    }
+
+    private static int compareInts(int i1, int i2) {
+        return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+    }
+
+    private static int daysInMonth(int month) {
+        return month == 2 ? 29 : month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check the formats accepted by {@link BirthdayDateParser}, and the values it rejects.
+ *
+ * User: Nicolas PICON
+ * Date: 18/10/26 - 14:10
+ */
+public class BirthdayDateParserTest {
+
+    @Test
+    public void acceptedFormats() {
+        final int date = BirthdayDateParser.pack(1990, 5, 12);
+        assertDate(date, "1990-05-12");
+        assertDate(date, "19900512");
+        assertDate(date, "12.05.1990");
+        assertDate(date, "1990-05-12T00:00:00.000Z");
+        assertDate(date, "1990-05-12 10:30");
+        assertDate(date, "  1990-05-12");
+
+        final int noYear = BirthdayDateParser.pack(BirthdayDateParser.UNKNOWN_YEAR, 5, 12);
+        assertDate(noYear, "--05-12");
+        assertDate(noYear, "--0512");
+    }
+
+    @Test
+    public void february29() {
+        // Kept on non-leap years: the birthday is celebrated on March 1st
+        assertDate(BirthdayDateParser.pack(2000, 2, 29), "2000-02-29");
+        assertDate(BirthdayDateParser.pack(2015, 2, 29), "2015-02-29");
+        assertDate(BirthdayDateParser.pack(BirthdayDateParser.UNKNOWN_YEAR, 2, 29), "--02-29");
+    }
+
+    @Test
+    public void invalidValues() {
+        assertEquals(BirthdayDateParser.INVALID, BirthdayDateParser.parse(null));
+        assertInvalid("");
+        assertInvalid("   ");
+
+        // Dates that do not exist
+        assertInvalid("1990-02-30");
+        assertInvalid("--02-30");
+        assertInvalid("31.04.1990");
+        assertInvalid("1990-13-01");
+        assertInvalid("1990-00-10");
+        assertInvalid("1990-05-00");
+
+        // Short fields
+        assertInvalid("1990-5-12");
+        assertInvalid("1990-05-1");
+        assertInvalid("--5-12");
+        assertInvalid("1.05.1990");
+        assertInvalid("12.05.90");
+        assertInvalid("199005");
+
+        // Trailing digits
+        assertInvalid("1990-05-123");
+        assertInvalid("199005123");
+        assertInvalid("--05-123");
+        assertInvalid("12.05.19901");
+
+        // Other separators
+        assertInvalid("1990/05/12");
+        assertInvalid("12/05/1990");
+        assertInvalid("1990-05/12");
+        assertInvalid("May 12, 1990");
+    }
+
+    @Test
+    public void charBuffer() {
+        // The retriever parses the characters copied from the cursor, in a reused buffer
+        CharBuffer buffer = CharBuffer.wrap("1990-05-12xxxx".toCharArray(), 0, 10);
+        assertEquals(BirthdayDateParser.pack(1990, 5, 12), BirthdayDateParser.parse(buffer));
+    }
+
+    @Test
+    public void pack() {
+        final int date = BirthdayDateParser.pack(2015, 12, 31);
+        assertEquals(2015, BirthdayDateParser.getYear(date));
+        assertEquals(12, BirthdayDateParser.getMonth(date));
+        assertEquals(31, BirthdayDateParser.getDay(date));
+
+        assertEquals(BirthdayDateParser.INVALID, BirthdayDateParser.pack(-1, 1, 1));
+    }
+
+    private static void assertDate(int expected, String value) {
+        assertEquals(value, expected, BirthdayDateParser.parse(value));
+    }
+
+    private static void assertInvalid(String value) {
+        assertEquals(value, BirthdayDateParser.INVALID, BirthdayDateParser.parse(value));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check {@link EpochDays} against {@link GregorianCalendar}, over a whole 400 years cycle of the gregorian calendar.
+ *
+ * User: Nicolas PICON
+ * Date: 18/10/26 - 10:30
+ */
+public class EpochDaysTest {
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+    private static final int FIRST_YEAR = 1900;
+    private static final int LAST_YEAR = FIRST_YEAR + 400;
+
+    @Test
+    public void fromDateAndToDate() {
+        GregorianCalendar calendar = newCalendar(FIRST_YEAR, 1, 1);
+        while (calendar.get(Calendar.YEAR) < LAST_YEAR) {
+            final int year = calendar.get(Calendar.YEAR);
+            final int month = calendar.get(Calendar.MONTH) + 1;
+            final int day = calendar.get(Calendar.DAY_OF_MONTH);
+            final int epochDay = epochDayOf(calendar);
+
+            assertEquals(year + "-" + month + "-" + day, epochDay, EpochDays.fromDate(year, month, day));
+            assertEquals("Epoch day " + epochDay,
+                    BirthdayDateParser.pack(year, month, day), EpochDays.toDate(epochDay));
+            assertEquals(year, EpochDays.getYear(epochDay));
+            assertEquals(calendar.isLeapYear(year), EpochDays.isLeapYear(year));
+
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+    }
+
+    @Test
+    public void daysUntilAndAgeAtNextBirthday() {
+        // Epoch day of January 1st of each year, read once from GregorianCalendar
+        final int[] yearStart = new int[LAST_YEAR - FIRST_YEAR + 2];
+        final boolean[] leapYear = new boolean[yearStart.length];
+        for (int i = 0; i < yearStart.length; i++) {
+            GregorianCalendar calendar = newCalendar(FIRST_YEAR + i, 1, 1);
+            yearStart[i] = epochDayOf(calendar);
+            leapYear[i] = calendar.isLeapYear(FIRST_YEAR + i);
+        }
+
+        // Every day of the cycle, against every birthday of a leap year: about 53.5M cases
+        final int birthYear = FIRST_YEAR - 1;
+        for (int year = FIRST_YEAR; year < LAST_YEAR; year++) {
+            final int y = year - FIRST_YEAR;
+            for (int today = yearStart[y]; today < yearStart[y + 1]; today++) {
+                for (int month = 1; month <= 12; month++) {
+                    for (int day = 1, nbDays = daysInMonth(month); day <= nbDays; day++) {
+                        // Next birthday, from today (included)
+                        int nextYear = y;
+                        int next = birthdayIn(yearStart[nextYear], leapYear[nextYear], month, day);
+                        if (next < today) {
+                            nextYear++;
+                            next = birthdayIn(yearStart[nextYear], leapYear[nextYear], month, day);
+                        }
+
+                        final int birthday = BirthdayDateParser.pack(birthYear, month, day);
+                        if (EpochDays.daysUntil(today, birthday) != next - today
+                                || EpochDays.ageAtNextBirthday(today, birthday, birthYear)
+                                != FIRST_YEAR + nextYear - birthYear) {
+                            // Only build the message of a failure
+                            final int date = EpochDays.toDate(today);
+                            final String message = BirthdayDateParser.getYear(date) + "-"
+                                    + BirthdayDateParser.getMonth(date) + "-" + BirthdayDateParser.getDay(date)
+                                    + " / " + month + "-" + day;
+                            assertEquals(message, next - today, EpochDays.daysUntil(today, birthday));
+                            // February 29th birthdays celebrated on March 1st still count for the year
+                            assertEquals(message, FIRST_YEAR + nextYear - birthYear,
+                                    EpochDays.ageAtNextBirthday(today, birthday, birthYear));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void february29() {
+        final int birthday = BirthdayDateParser.pack(2000, 2, 29);
+
+        // Non-leap year: celebrated on March 1st
+        assertEquals(1, EpochDays.daysUntil(EpochDays.fromDate(2015, 2, 28), birthday));
+        assertEquals(0, EpochDays.daysUntil(EpochDays.fromDate(2015, 3, 1), birthday));
+        assertEquals(364, EpochDays.daysUntil(EpochDays.fromDate(2015, 3, 2), birthday));
+        assertEquals(EpochDays.fromDate(2015, 3, 1), EpochDays.birthdayIn(2015, birthday));
+
+        // Leap year
+        assertEquals(1, EpochDays.daysUntil(EpochDays.fromDate(2016, 2, 28), birthday));
+        assertEquals(0, EpochDays.daysUntil(EpochDays.fromDate(2016, 2, 29), birthday));
+        assertEquals(365, EpochDays.daysUntil(EpochDays.fromDate(2016, 3, 1), birthday));
+        assertEquals(EpochDays.fromDate(2016, 2, 29), EpochDays.birthdayIn(2016, birthday));
+
+        // 1900 and 2100 are not leap years, 2000 is
+        assertEquals(EpochDays.fromDate(1900, 3, 1), EpochDays.birthdayIn(1900, birthday));
+        assertEquals(EpochDays.fromDate(2000, 2, 29), EpochDays.birthdayIn(2000, birthday));
+        assertEquals(EpochDays.fromDate(2100, 3, 1), EpochDays.birthdayIn(2100, birthday));
+
+        // Age
+        assertEquals(15, EpochDays.ageAtNextBirthday(EpochDays.fromDate(2015, 2, 28), birthday, 2000));
+        assertEquals(15, EpochDays.ageAtNextBirthday(EpochDays.fromDate(2015, 3, 1), birthday, 2000));
+        assertEquals(16, EpochDays.ageAtNextBirthday(EpochDays.fromDate(2015, 3, 2), birthday, 2000));
+        assertEquals(16, EpochDays.ageAtNextBirthday(EpochDays.fromDate(2016, 2, 29), birthday, 2000));
+        assertEquals(17, EpochDays.ageAtNextBirthday(EpochDays.fromDate(2016, 3, 1), birthday, 2000));
+    }
+
+    @Test
+    public void epochOrigin() {
+        assertEquals(0, EpochDays.fromDate(1970, 1, 1));
+        assertEquals(-1, EpochDays.fromDate(1969, 12, 31));
+        assertEquals(BirthdayDateParser.pack(1970, 1, 1), EpochDays.toDate(0));
+        assertEquals(-1, EpochDays.fromMillis(-1, TimeZone.getTimeZone("UTC")));
+    }
+
+    /**
+     * @return epoch day of a birthday, as celebrated in the year starting on <code>yearStart</code>
+     */
+    private static int birthdayIn(int yearStart, boolean leapYear, int month, int day) {
+        if (month == 2 && day == 29 && !leapYear) {
+            month = 3;
+            day = 1;
+        }
+        int dayOfYear = day - 1;
+        for (int m = 1; m < month; m++) {
+            dayOfYear += m == 2 && !leapYear ? 28 : daysInMonth(m);
+        }
+        return yearStart + dayOfYear;
+    }
+
+    private static GregorianCalendar newCalendar(int year, int month, int day) {
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        // Proleptic gregorian calendar, as EpochDays
+        calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+        calendar.clear();
+        calendar.setLenient(false);
+        calendar.set(year, month - 1, day);
+        return calendar;
+    }
+
+    private static int epochDayOf(GregorianCalendar calendar) {
+        final long millis = calendar.getTimeInMillis();
+        return (int) (millis >= 0 ? millis / MILLIS_PER_DAY : (millis - MILLIS_PER_DAY + 1) / MILLIS_PER_DAY);
+    }
+
+    private static int daysInMonth(int month) {
+        return month == 2 ? 29 : month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+}
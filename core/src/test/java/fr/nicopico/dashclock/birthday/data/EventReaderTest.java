@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the routing, the deduplication and the date validation of {@link EventReader}.
+ *
+ * User: Nicolas PICON
+ * Date: 18/10/26 - 15:30
+ */
+public class EventReaderTest {
+
+    private static final int DATE = BirthdayDateParser.pack(1990, 5, 12);
+
+    private EventReader reader;
+
+    @Before
+    public void setUp() {
+        reader = new EventReader();
+        reader.startPass();
+    }
+
+    @Test
+    public void kinds() {
+        assertEquals(BirthdayStore.KIND_BIRTHDAY, EventReader.getKind(EventReader.TYPE_BIRTHDAY));
+        assertEquals(BirthdayStore.KIND_ANNIVERSARY, EventReader.getKind(EventReader.TYPE_ANNIVERSARY));
+        assertEquals(BirthdayStore.KIND_OTHER, EventReader.getKind(EventReader.TYPE_OTHER));
+        assertEquals(BirthdayStore.KIND_OTHER, EventReader.getKind(EventReader.TYPE_CUSTOM));
+    }
+
+    @Test
+    public void duplicates() {
+        assertFalse(reader.isDuplicate(1, BirthdayStore.KIND_BIRTHDAY));
+        assertTrue(reader.accept(1, BirthdayStore.KIND_BIRTHDAY, DATE, true));
+
+        // Another raw contact of the same contact
+        assertTrue(reader.isDuplicate(1, BirthdayStore.KIND_BIRTHDAY));
+        assertFalse(reader.isDuplicate(1, BirthdayStore.KIND_ANNIVERSARY));
+        assertFalse(reader.isDuplicate(2, BirthdayStore.KIND_BIRTHDAY));
+
+        // A contact may have several other events
+        assertTrue(reader.accept(1, BirthdayStore.KIND_OTHER, DATE, true));
+        assertFalse(reader.isDuplicate(1, BirthdayStore.KIND_OTHER));
+        assertEquals(1, reader.getDuplicates());
+
+        reader.startPass();
+        assertFalse(reader.isDuplicate(1, BirthdayStore.KIND_BIRTHDAY));
+        assertEquals(0, reader.getDuplicates());
+    }
+
+    @Test
+    public void invalidEvents() {
+        // Invalid events are not recorded: the event of another raw contact is read instead
+        assertFalse(reader.accept(1, BirthdayStore.KIND_BIRTHDAY, BirthdayDateParser.INVALID, true));
+        assertFalse(reader.isDuplicate(1, BirthdayStore.KIND_BIRTHDAY));
+        assertFalse(reader.accept(1, BirthdayStore.KIND_BIRTHDAY, DATE, false));
+        assertFalse(reader.isDuplicate(1, BirthdayStore.KIND_BIRTHDAY));
+    }
+
+    @Test
+    public void parseFailures() {
+        assertEquals(DATE, reader.parseDate("1990-05-12"));
+        assertEquals(0, reader.getParseFailures());
+
+        // Missing dates are not failures
+        assertEquals(BirthdayDateParser.INVALID, reader.parseDate(null));
+        assertEquals(BirthdayDateParser.INVALID, reader.parseDate(""));
+        assertEquals(0, reader.getParseFailures());
+
+        assertEquals(BirthdayDateParser.INVALID, reader.parseDate("1990/05/12"));
+        assertEquals(BirthdayDateParser.INVALID, reader.parseDate("  "));
+        assertEquals(2, reader.getParseFailures());
+
+        reader.startPass();
+        assertEquals(0, reader.getParseFailures());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check {@link LongHashSet} against {@link HashSet}.
+ *
+ * User: Nicolas PICON
+ * Date: 18/10/26 - 11:40
+ */
+public class LongHashSetTest {
+
+    // Long.MIN_VALUE marks the free slots
+    private static final long[] SPECIAL_VALUES = { Long.MIN_VALUE, Long.MAX_VALUE, 0, -1, 1 };
+
+    @Test
+    public void randomValues() {
+        final Random random = new Random(42);
+        // Small ranges collide often and build long clusters
+        for (int range : new int[] { 8, 100, 10000 }) {
+            LongHashSet set = new LongHashSet(4);
+            Set<Long> reference = new HashSet<Long>();
+
+            for (int n = 0; n < 20000; n++) {
+                final long value = randomValue(random, range);
+                if (random.nextBoolean()) {
+                    assertEquals("add " + value, reference.add(value), set.add(value));
+                }
+                else {
+                    assertEquals("contains " + value, reference.contains(value), set.contains(value));
+                }
+                assertEquals(reference.size(), set.size());
+            }
+
+            // Every value can still be found after the table has grown
+            for (long value = -range; value <= range; value++) {
+                assertEquals("contains " + value, reference.contains(value), set.contains(value));
+            }
+            for (long value : SPECIAL_VALUES) {
+                assertEquals("contains " + value, reference.contains(value), set.contains(value));
+            }
+        }
+    }
+
+    @Test
+    public void eventKeys() {
+        // Keys of the deduplication: contactId * NB_KINDS + kind, with sequential contact ids
+        LongHashSet set = new LongHashSet(0);
+        for (long contactId = 1; contactId <= 50000; contactId++) {
+            assertTrue(set.add(contactId * BirthdayStore.NB_KINDS + BirthdayStore.KIND_BIRTHDAY));
+        }
+        for (long contactId = 1; contactId <= 50000; contactId++) {
+            assertTrue(set.contains(contactId * BirthdayStore.NB_KINDS + BirthdayStore.KIND_BIRTHDAY));
+            assertFalse(set.contains(contactId * BirthdayStore.NB_KINDS + BirthdayStore.KIND_ANNIVERSARY));
+        }
+        assertEquals(50000, set.size());
+    }
+
+    @Test
+    public void freeValueAndClear() {
+        LongHashSet set = new LongHashSet(0);
+        assertFalse(set.contains(Long.MIN_VALUE));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertFalse(set.add(Long.MIN_VALUE));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertEquals(1, set.size());
+
+        set.add(0);
+        set.clear();
+        assertFalse(set.contains(Long.MIN_VALUE));
+        assertFalse(set.contains(0));
+        assertEquals(0, set.size());
+        assertTrue(set.add(0));
+    }
+
+    private static long randomValue(Random random, int range) {
+        if (random.nextInt(20) == 0) {
+            return SPECIAL_VALUES[random.nextInt(SPECIAL_VALUES.length)];
+        }
+        return random.nextInt(2 * range + 1) - range;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Check {@link MessageTemplate} against {@link String#format(Locale, String, Object...)}.
+ *
+ * User: Nicolas PICON
+ * Date: 18/10/26 - 14:35
+ */
+public class MessageTemplateTest {
+
+    @Test
+    public void stringArgument() {
+        assertFormat("%s", "Nicolas");
+        assertFormat("%1$s\'s birthday", "Nicolas");
+        assertFormat("Anniversaire de %s", "Nicolas");
+        assertFormat("Birthday: %1$s!", "");
+    }
+
+    @Test
+    public void intArgument() {
+        for (int value : new int[] { 0, 1, 9, 10, 42, 365, -1, Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+            assertFormat("%d", value);
+            assertFormat("in %1$d days", value);
+            assertFormat("%d years old", value);
+        }
+    }
+
+    @Test
+    public void percent() {
+        assertFormat("%%", "ignored");
+        assertFormat("100%% %s", "sure");
+        assertFormat("%1$d%%", 50);
+        assertFormat("%% %d %%", 3);
+    }
+
+    @Test
+    public void noArgument() {
+        assertFormat("today", "ignored");
+        assertFormat("tomorrow", 1);
+
+        assertTrue(MessageTemplate.compile("").isEmpty());
+        assertFalse(MessageTemplate.compile("%s").isEmpty());
+        assertFalse(MessageTemplate.compile("%%").isEmpty());
+        assertFalse(MessageTemplate.compile("event").isEmpty());
+    }
+
+    @Test
+    public void appendTo() {
+        // Appended after the existing content
+        StringBuilder sb = new StringBuilder("Nicolas, ");
+        MessageTemplate.compile("%d years").appendTo(sb, 30).append(' ');
+        MessageTemplate.compile("in %1$d days").appendTo(sb, 3);
+        assertEquals("Nicolas, 30 years in 3 days", sb.toString());
+    }
+
+    @Test
+    public void unsupportedFormats() {
+        assertRejected("%s and %s");
+        assertRejected("%1$s is %2$d");
+        assertRejected("%d%d");
+        assertRejected("%");
+        assertRejected("in %d days %");
+        assertRejected("%2$s");
+        assertRejected("%f");
+        assertRejected("%1$");
+        assertRejected("%5d");
+    }
+
+    private static void assertFormat(String format, String argument) {
+        final String expected = String.format(Locale.US, format, argument);
+        final StringBuilder sb = MessageTemplate.compile(format).appendTo(new StringBuilder(), argument);
+        assertEquals(format, expected, sb.toString());
+    }
+
+    private static void assertFormat(String format, int argument) {
+        final String expected = String.format(Locale.US, format, argument);
+        final StringBuilder sb = MessageTemplate.compile(format).appendTo(new StringBuilder(), argument);
+        assertEquals(format, expected, sb.toString());
+    }
+
+    private static void assertRejected(String format) {
+        try {
+            MessageTemplate.compile(format);
+            fail("\"" + format + "\" should be rejected");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
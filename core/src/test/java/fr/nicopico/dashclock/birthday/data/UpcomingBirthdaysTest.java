@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Nicolas Picon <nicopico.dev@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.nicopico.dashclock.birthday.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the bounded heap of {@link UpcomingBirthdays} against a full sort of the offered birthdays.
+ *
+ * User: Nicolas PICON
+ * Date: 18/10/26 - 11:55
+ */
+public class UpcomingBirthdaysTest {
+
+    private static final int CAPACITY = 50;
+
+    @Test
+    public void overflow() {
+        final Random random = new Random(42);
+        UpcomingBirthdays upcoming = new UpcomingBirthdays(CAPACITY);
+        for (int nbBirthdays : new int[] { 0, 1, CAPACITY - 1, CAPACITY, CAPACITY + 1, 1000 }) {
+            // Few days and few names: many birthdays have equal keys
+            check(upcoming, randomBirthdays(random, nbBirthdays, 10, 20));
+            check(upcoming, randomBirthdays(random, nbBirthdays, 366, 1000));
+        }
+    }
+
+    @Test
+    public void equalKeys() {
+        UpcomingBirthdays upcoming = new UpcomingBirthdays(CAPACITY);
+        List<Birthday> birthdays = new ArrayList<Birthday>();
+        for (int i = 0; i < 3 * CAPACITY; i++) {
+            birthdays.add(new Birthday(7, i, "Same name"));
+        }
+        check(upcoming, birthdays);
+
+        // Birthdays earlier than the kept ones replace them, whatever their order
+        birthdays.clear();
+        for (int i = 0; i < 3 * CAPACITY; i++) {
+            birthdays.add(new Birthday(3 * CAPACITY - i, i, "Name " + (i % 3)));
+        }
+        check(upcoming, birthdays);
+    }
+
+    @Test
+    public void candidates() {
+        UpcomingBirthdays upcoming = new UpcomingBirthdays(2);
+        assertTrue(upcoming.isCandidate(10));
+        upcoming.offer(5, 1, "key1", "B", 0);
+        upcoming.offer(8, 2, "key2", "A", 0);
+        assertTrue(upcoming.isCandidate(8));
+        assertFalse(upcoming.isCandidate(9));
+        upcoming.skip();
+        upcoming.sort();
+
+        assertEquals(2, upcoming.size());
+        assertEquals(3, upcoming.getCount());
+        assertEquals(5, upcoming.getDays(0));
+        assertEquals("key1", upcoming.getLookupKey(0));
+        assertEquals(8, upcoming.getDays(1));
+        assertEquals(2, upcoming.getContactId(1));
+
+        UpcomingBirthdays empty = new UpcomingBirthdays(0);
+        assertFalse(empty.isCandidate(0));
+        empty.offer(0, 1, "key1", "A", 0);
+        empty.sort();
+        assertEquals(0, empty.size());
+        assertEquals(1, empty.getCount());
+    }
+
+    /**
+     * Offer the birthdays after a {@link UpcomingBirthdays#clear()}, and check the kept ones against a stable sort
+     */
+    private static void check(UpcomingBirthdays upcoming, List<Birthday> birthdays) {
+        upcoming.clear();
+        for (Birthday birthday : birthdays) {
+            upcoming.offer(birthday.days, birthday.contactId, "key" + birthday.contactId, birthday.displayName,
+                    BirthdayDateParser.pack(1980, 1, 1), BirthdayStore.KIND_ANNIVERSARY);
+        }
+        upcoming.sort();
+
+        List<Birthday> expected = new ArrayList<Birthday>(birthdays);
+        Collections.sort(expected, new Comparator<Birthday>() {
+            @Override
+            public int compare(Birthday b1, Birthday b2) {
+                if (b1.days != b2.days) return b1.days < b2.days ? -1 : 1;
+                return b1.displayName.compareTo(b2.displayName);
+            }
+        });
+
+        assertEquals(birthdays.size(), upcoming.getCount());
+        assertEquals(Math.min(CAPACITY, birthdays.size()), upcoming.size());
+        for (int i = 0; i < upcoming.size(); i++) {
+            final Birthday birthday = expected.get(i);
+            assertEquals("days of #" + i, birthday.days, upcoming.getDays(i));
+            assertEquals("name of #" + i, birthday.displayName, upcoming.getDisplayName(i));
+            assertEquals("key" + upcoming.getContactId(i), upcoming.getLookupKey(i));
+            assertEquals(BirthdayStore.KIND_ANNIVERSARY, upcoming.getKind(i));
+        }
+
+        // Birthdays with equal keys may be kept in any order, but no birthday can be lost or kept twice
+        List<Long> expectedIds = new ArrayList<Long>();
+        List<Long> keptIds = new ArrayList<Long>();
+        for (int i = 0; i < upcoming.size(); i++) {
+            if (isTiedWithLast(expected, i, upcoming.size())) continue;
+            expectedIds.add(expected.get(i).contactId);
+            keptIds.add(upcoming.getContactId(i));
+        }
+        Collections.sort(expectedIds);
+        Collections.sort(keptIds);
+        assertEquals(expectedIds, keptIds);
+    }
+
+    /**
+     * @return <code>true</code> if the <code>i</code>th birthday has the same key as the last kept one:
+     * the heap is free to keep any of them
+     */
+    private static boolean isTiedWithLast(List<Birthday> sorted, int i, int size) {
+        final Birthday last = sorted.get(size - 1);
+        final Birthday birthday = sorted.get(i);
+        return birthday.days == last.days && birthday.displayName.equals(last.displayName);
+    }
+
+    private static List<Birthday> randomBirthdays(Random random, int nbBirthdays, int nbDays, int nbNames) {
+        List<Birthday> birthdays = new ArrayList<Birthday>(nbBirthdays);
+        for (int i = 0; i < nbBirthdays; i++) {
+            birthdays.add(new Birthday(random.nextInt(nbDays), i, "Name " + random.nextInt(nbNames)));
+        }
+        return birthdays;
+    }
+
+    private static final class Birthday {
+        final int days;
+        final long contactId;
+        final String displayName;
+
+        Birthday(int days, long contactId, String displayName) {
+            this.days = days;
+            this.contactId = contactId;
+            this.displayName = displayName;
+        }
+    }
+}